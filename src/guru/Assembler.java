@@ -0,0 +1,340 @@
+package guru;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class Assembler {
+    static final int ACC_PUBLIC = 0x0001, ACC_PRIVATE = 0x0002, ACC_STATIC = 0x0008, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+    static final int ACONST_NULL = 0x01, ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13, LDC2_W = 0x14,
+        ILOAD = 0x15, DLOAD = 0x18, ALOAD = 0x19, AALOAD = 0x32, ISTORE = 0x36, DSTORE = 0x39, ASTORE = 0x3a, AASTORE = 0x53,
+        POP = 0x57, POP2 = 0x58, DUP = 0x59, DUP2 = 0x5c, SWAP = 0x5f,
+        DADD = 0x63, DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f, DNEG = 0x77, LCMP = 0x94, DCMPL = 0x97, DCMPG = 0x98,
+        IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e, IF_ACMPEQ = 0xa5, IF_ACMPNE = 0xa6, GOTO = 0xa7,
+        ARETURN = 0xb0, RETURN = 0xb1, GETSTATIC = 0xb2, PUTSTATIC = 0xb3, GETFIELD = 0xb4, PUTFIELD = 0xb5,
+        INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, INVOKEINTERFACE = 0xb9,
+        NEW = 0xbb, ANEWARRAY = 0xbd, ATHROW = 0xbf, CHECKCAST = 0xc0, INSTANCEOF = 0xc1, WIDE = 0xc4,
+        IFNULL = 0xc6, IFNONNULL = 0xc7;
+
+    static final class Label {
+        private int pos = -1, stack = -1;
+        private final List<Integer> refs = new ArrayList<>();
+    }
+
+    private static final class Out extends ByteArrayOutputStream {
+        void u1(int v) { write(v); }
+        void u2(int v) { write(v >>> 8); write(v); }
+        void u4(int v) { u2(v >>> 16); u2(v); }
+
+        void utf(String s) {
+            Out bytes = new Out();
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c != 0 && c < 0x80) {
+                    bytes.u1(c);
+                } else if (c < 0x800) {
+                    bytes.u1(0xc0 | c >> 6);
+                    bytes.u1(0x80 | c & 0x3f);
+                } else {
+                    bytes.u1(0xe0 | c >> 12);
+                    bytes.u1(0x80 | c >> 6 & 0x3f);
+                    bytes.u1(0x80 | c & 0x3f);
+                }
+            }
+            u2(bytes.size());
+            write(bytes.buf, 0, bytes.size());
+        }
+
+        void append(Out other) {
+            write(other.buf, 0, other.size());
+        }
+
+        void patch(int at, int v) {
+            buf[at] = (byte) (v >>> 8);
+            buf[at + 1] = (byte) v;
+        }
+    }
+
+    private final Out pool = new Out(), fields = new Out(), methods = new Out();
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int count = 1, fieldCount = 0, methodCount = 0;
+
+    private Out code;
+    private final List<Label> labels = new ArrayList<>();
+    private int access, name, desc, stack, maxStack, locals, maxLocals;
+
+    private int entry(String key) {
+        Integer index = entries.get(key);
+        return index == null ? 0 : index;
+    }
+
+    private int put(String key, int size) {
+        entries.put(key, count);
+        count += size;
+        return count - size;
+    }
+
+    int utf8(String s) {
+        int index = entry("U" + s);
+        if (index != 0) return index;
+        pool.u1(1);
+        pool.utf(s);
+        return put("U" + s, 1);
+    }
+
+    int cls(String name) {
+        int index = entry("C" + name);
+        if (index != 0) return index;
+        int n = utf8(name);
+        pool.u1(7);
+        pool.u2(n);
+        return put("C" + name, 1);
+    }
+
+    int string(String s) {
+        int index = entry("S" + s);
+        if (index != 0) return index;
+        int n = utf8(s);
+        pool.u1(8);
+        pool.u2(n);
+        return put("S" + s, 1);
+    }
+
+    int integer(int v) {
+        int index = entry("I" + v);
+        if (index != 0) return index;
+        pool.u1(3);
+        pool.u4(v);
+        return put("I" + v, 1);
+    }
+
+    int number(double d) {
+        long bits = Double.doubleToRawLongBits(d);
+        int index = entry("D" + bits);
+        if (index != 0) return index;
+        pool.u1(6);
+        pool.u4((int) (bits >>> 32));
+        pool.u4((int) bits);
+        return put("D" + bits, 2);
+    }
+
+    int wide(long l) {
+        int index = entry("J" + l);
+        if (index != 0) return index;
+        pool.u1(5);
+        pool.u4((int) (l >>> 32));
+        pool.u4((int) l);
+        return put("J" + l, 2);
+    }
+
+    private int member(int tag, String owner, String name, String desc) {
+        String key = tag + owner + "." + name + desc;
+        int index = entry(key);
+        if (index != 0) return index;
+        int c = cls(owner), n = utf8(name), d = utf8(desc);
+        int nt = entry("N" + name + desc);
+        if (nt == 0) {
+            pool.u1(12);
+            pool.u2(n);
+            pool.u2(d);
+            nt = put("N" + name + desc, 1);
+        }
+        pool.u1(tag);
+        pool.u2(c);
+        pool.u2(nt);
+        return put(key, 1);
+    }
+
+    void declare(int access, String name, String desc) {
+        fields.u2(access);
+        fields.u2(utf8(name));
+        fields.u2(utf8(desc));
+        fields.u2(0);
+        fieldCount++;
+    }
+
+    void begin(int access, String name, String desc, int args) {
+        this.access = access;
+        this.name = utf8(name);
+        this.desc = utf8(desc);
+        code = new Out();
+        labels.clear();
+        stack = maxStack = 0;
+        locals = maxLocals = args;
+    }
+
+    void end() {
+        for (Label label : labels) {
+            for (int ref : label.refs) {
+                int offset = label.pos - ref;
+                if (offset != (short) offset) throw new IllegalStateException("jump too far");
+                code.patch(ref + 1, offset);
+            }
+        }
+        if (code.size() >= 65536) throw new IllegalStateException("method too large");
+        int attr = utf8("Code");
+        methods.u2(access);
+        methods.u2(name);
+        methods.u2(desc);
+        methods.u2(1);
+        methods.u2(attr);
+        methods.u4(12 + code.size());
+        methods.u2(maxStack);
+        methods.u2(maxLocals);
+        methods.u4(code.size());
+        methods.append(code);
+        methods.u2(0);
+        methods.u2(0);
+        methodCount++;
+    }
+
+    byte[] finish(String name, String superName) {
+        int self = cls(name), sup = cls(superName);
+        Out out = new Out();
+        out.u4(0xcafebabe);
+        out.u2(0);
+        out.u2(49);
+        out.u2(count);
+        out.append(pool);
+        out.u2(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.u2(self);
+        out.u2(sup);
+        out.u2(0);
+        out.u2(fieldCount);
+        out.append(fields);
+        out.u2(methodCount);
+        out.append(methods);
+        out.u2(0);
+        return out.toByteArray();
+    }
+
+    private void adjust(int delta) {
+        stack += delta;
+        if (stack > maxStack) maxStack = stack;
+    }
+
+    int local(int size) {
+        locals += size;
+        if (locals > maxLocals) maxLocals = locals;
+        return locals - size;
+    }
+
+    int locals() {
+        return locals;
+    }
+
+    void release(int mark) {
+        locals = mark;
+    }
+
+    void op(int opcode, int delta) {
+        code.u1(opcode);
+        adjust(delta);
+    }
+
+    void push(int v) {
+        if (v >= -1 && v <= 5) {
+            code.u1(ICONST_0 + v);
+        } else if (v == (byte) v) {
+            code.u1(BIPUSH);
+            code.u1(v);
+        } else if (v == (short) v) {
+            code.u1(SIPUSH);
+            code.u2(v);
+        } else {
+            code.u1(LDC_W);
+            code.u2(integer(v));
+        }
+        adjust(1);
+    }
+
+    void ldc(String s) {
+        code.u1(LDC_W);
+        code.u2(string(s));
+        adjust(1);
+    }
+
+    void ldc(double d) {
+        code.u1(LDC2_W);
+        code.u2(number(d));
+        adjust(2);
+    }
+
+    void ldc(long l) {
+        code.u1(LDC2_W);
+        code.u2(wide(l));
+        adjust(2);
+    }
+
+    private void var(int opcode, int index, int delta) {
+        if (index < 256) {
+            code.u1(opcode);
+            code.u1(index);
+        } else {
+            code.u1(WIDE);
+            code.u1(opcode);
+            code.u2(index);
+        }
+        adjust(delta);
+    }
+
+    void aload(int index) { var(ALOAD, index, 1); }
+    void astore(int index) { var(ASTORE, index, -1); }
+    void dload(int index) { var(DLOAD, index, 2); }
+    void dstore(int index) { var(DSTORE, index, -2); }
+    void iload(int index) { var(ILOAD, index, 1); }
+    void istore(int index) { var(ISTORE, index, -1); }
+
+    void type(int opcode, String cls) {
+        code.u1(opcode);
+        code.u2(cls(cls));
+        adjust(opcode == NEW ? 1 : 0);
+    }
+
+    void field(int opcode, String owner, String name, String desc) {
+        int size = slots(desc.charAt(0));
+        code.u1(opcode);
+        code.u2(member(9, owner, name, desc));
+        adjust(opcode == GETSTATIC ? size : opcode == GETFIELD ? size - 1 : opcode == PUTSTATIC ? -size : -1 - size);
+    }
+
+    void invoke(int opcode, String owner, String name, String desc) {
+        int args = 0, i = 1;
+        while (desc.charAt(i) != ')') {
+            char c = desc.charAt(i);
+            args += slots(c);
+            while (desc.charAt(i) == '[') i++;
+            i = desc.charAt(i) == 'L' ? desc.indexOf(';', i) + 1 : i + 1;
+        }
+        int ret = slots(desc.charAt(i + 1));
+        code.u1(opcode);
+        code.u2(member(opcode == INVOKEINTERFACE ? 11 : 10, owner, name, desc));
+        if (opcode == INVOKEINTERFACE) {
+            code.u1(args + 1);
+            code.u1(0);
+        }
+        adjust(ret - args - (opcode == INVOKESTATIC ? 0 : 1));
+    }
+
+    private static int slots(char c) {
+        return c == 'V' ? 0 : c == 'D' || c == 'J' ? 2 : 1;
+    }
+
+    void jump(int opcode, Label label) {
+        adjust(opcode == GOTO ? 0 : opcode == IF_ACMPEQ || opcode == IF_ACMPNE ? -2 : -1);
+        if (label.stack < 0) label.stack = stack;
+        if (!labels.contains(label)) labels.add(label);
+        label.refs.add(code.size());
+        code.u1(opcode);
+        code.u2(0);
+    }
+
+    void place(Label label) {
+        label.pos = code.size();
+        if (label.stack >= 0) stack = label.stack; else label.stack = stack;
+        if (!labels.contains(label)) labels.add(label);
+    }
+}
@@ -0,0 +1,234 @@
+package guru;
+
+abstract class BinaryNode {
+    // what a site yields as long as it does not generalize
+    static final int OBJECT = 0, DOUBLE = 1, LONG = 2;
+
+    final int yields;
+
+    BinaryNode() {
+        this(OBJECT);
+    }
+
+    BinaryNode(int yields) {
+        this.yields = yields;
+    }
+
+    abstract Object eval(Interpreter interpreter, Expr.Binary expr);
+
+    // like eval, but the result stays unboxed; any other result is thrown as Interpreter.Unexpected
+    double number(Interpreter interpreter, Expr.Binary expr) {
+        Object val = eval(interpreter, expr);
+        if (val instanceof Double) return (Double) val;
+        if (val instanceof Long) return (Long) val;
+        throw new Interpreter.Unexpected(val);
+    }
+
+    long integer(Interpreter interpreter, Expr.Binary expr) {
+        Object val = eval(interpreter, expr);
+        if (val instanceof Long) return (Long) val;
+        throw new Interpreter.Unexpected(val);
+    }
+
+    static final BinaryNode UNINITIALIZED = new BinaryNode() {
+        @Override
+        Object eval(Interpreter interpreter, Expr.Binary expr) {
+            Object left = expr.left.accept(interpreter);
+            Object right = expr.right.accept(interpreter);
+            expr.node = specialize(expr.operator.type, left, right);
+            return Interpreter.binary(expr.operator, left, right);
+        }
+    };
+
+    static final BinaryNode GENERIC = new BinaryNode() {
+        @Override
+        Object eval(Interpreter interpreter, Expr.Binary expr) {
+            Object left = expr.left.accept(interpreter);
+            Object right = expr.right.accept(interpreter);
+            return Interpreter.binary(expr.operator, left, right);
+        }
+    };
+
+    static final BinaryNode STRING_ADD = new BinaryNode() {
+        @Override
+        Object eval(Interpreter interpreter, Expr.Binary expr) {
+            Object left = expr.left.accept(interpreter);
+            Object right = expr.right.accept(interpreter);
+            if (left instanceof String && right instanceof String)
+                return (String) left + (String) right;
+            return generalize(expr, left, right);
+        }
+    };
+
+    // a site that has seen two numbers, not both Longs; its arithmetic yields unboxed
+    private static final class Doubles extends BinaryNode {
+        private final TokenType op;
+
+        Doubles(TokenType op) {
+            super(arithmetic(op) ? DOUBLE : OBJECT);
+            this.op = op;
+        }
+
+        @Override
+        Object eval(Interpreter interpreter, Expr.Binary expr) {
+            try {
+                if (yields == DOUBLE) return number(interpreter, expr);
+                double left = left(interpreter, expr);
+                double right = right(interpreter, expr, left, interpreter.integral);
+                switch (op) {
+                    case LESS: return left < right;
+                    case LESS_EQUAL: return left <= right;
+                    case GREATER: return left > right;
+                    default: return left >= right;
+                }
+            } catch (Interpreter.Unexpected result) {
+                return result.value;
+            }
+        }
+
+        @Override
+        double number(Interpreter interpreter, Expr.Binary expr) {
+            if (yields != DOUBLE) return super.number(interpreter, expr);
+            double left = left(interpreter, expr);
+            boolean integral = interpreter.integral;
+            double right = right(interpreter, expr, left, integral);
+            if (integral && interpreter.integral) throw mismatch(expr, (long) left, (long) right);
+            switch (op) {
+                case PLUS: return left + right;
+                case MINUS: return left - right;
+                case STAR: return left * right;
+                default: return left / right;
+            }
+        }
+    }
+
+    // a site that has seen two Longs; its arithmetic yields unboxed while the result is exact
+    private static final class Longs extends BinaryNode {
+        private final TokenType op;
+
+        Longs(TokenType op) {
+            super(arithmetic(op) ? LONG : OBJECT);
+            this.op = op;
+        }
+
+        @Override
+        Object eval(Interpreter interpreter, Expr.Binary expr) {
+            try {
+                if (yields == LONG) return integer(interpreter, expr);
+                long left = leftInteger(interpreter, expr), right = rightInteger(interpreter, expr, left);
+                switch (op) {
+                    case LESS: return left < right;
+                    case LESS_EQUAL: return left <= right;
+                    case GREATER: return left > right;
+                    case GREATER_EQUAL: return left >= right;
+                    case EQUAL_EQUAL: return left == right;
+                    default: return left != right;
+                }
+            } catch (Interpreter.Unexpected result) {
+                return result.value;
+            }
+        }
+
+        @Override
+        long integer(Interpreter interpreter, Expr.Binary expr) {
+            if (yields != LONG) return super.integer(interpreter, expr);
+            long left = leftInteger(interpreter, expr), right = rightInteger(interpreter, expr, left);
+            long result;
+            switch (op) {
+                case PLUS:
+                    result = left + right;
+                    if (((left ^ result) & (right ^ result)) < 0) throw new Interpreter.Unexpected(Numbers.add(left, right));
+                    return result;
+                case MINUS:
+                    result = left - right;
+                    if (((left ^ right) & (left ^ result)) < 0) throw new Interpreter.Unexpected(Numbers.subtract(left, right));
+                    return result;
+                default:
+                    result = left * right;
+                    if (Math.multiplyHigh(left, right) != result >> 63 || result == 0 && (left < 0 || right < 0)) throw new Interpreter.Unexpected(Numbers.multiply(left, right));
+                    return result;
+            }
+        }
+    }
+
+    private static boolean arithmetic(TokenType op) {
+        return op == TokenType.PLUS || op == TokenType.MINUS || op == TokenType.STAR || op == TokenType.SLASH;
+    }
+
+    // the operands of a specialized site are evaluated unboxed; when one is not what the site
+    // expects it generalizes and the result of the generic operation is thrown on as Interpreter.Unexpected
+    private static double left(Interpreter interpreter, Expr.Binary expr) {
+        try {
+            return interpreter.number(expr.left);
+        } catch (Interpreter.Unexpected left) {
+            throw mismatch(expr, left.value, expr.right.accept(interpreter));
+        }
+    }
+
+    // integral when left was read from a Long
+    private static double right(Interpreter interpreter, Expr.Binary expr, double left, boolean integral) {
+        try {
+            return interpreter.number(expr.right);
+        } catch (Interpreter.Unexpected right) {
+            throw mismatch(expr, integral ? (Object) (long) left : (Object) left, right.value);
+        }
+    }
+
+    private static long leftInteger(Interpreter interpreter, Expr.Binary expr) {
+        try {
+            return interpreter.integer(expr.left);
+        } catch (Interpreter.Unexpected left) {
+            throw mismatch(expr, left.value, expr.right.accept(interpreter));
+        }
+    }
+
+    private static long rightInteger(Interpreter interpreter, Expr.Binary expr, long left) {
+        try {
+            return interpreter.integer(expr.right);
+        } catch (Interpreter.Unexpected right) {
+            throw mismatch(expr, left, right.value);
+        }
+    }
+
+    private static Interpreter.Unexpected mismatch(Expr.Binary expr, Object left, Object right) {
+        return new Interpreter.Unexpected(generalize(expr, left, right));
+    }
+
+    // a specialized site that sees new operand types only ever widens: Long sites move on
+    // to Double ones when other numbers show up, Double arithmetic goes generic once it
+    // gets two Longs, and everything else goes generic for good
+    static Object generalize(Expr.Binary expr, Object left, Object right) {
+        boolean numbers = Numbers.isNumber(left) && Numbers.isNumber(right);
+        boolean longs = left instanceof Long && right instanceof Long;
+        expr.node = numbers && !(longs && expr.node.yields == DOUBLE) ? doubles(expr.operator.type) : GENERIC;
+        return Interpreter.binary(expr.operator, left, right);
+    }
+
+    static BinaryNode specialize(TokenType op, Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) return longs(op);
+        if (Numbers.isNumber(left) && Numbers.isNumber(right)) return doubles(op);
+        if (op == TokenType.PLUS && left instanceof String && right instanceof String)
+            return STRING_ADD;
+        return GENERIC;
+    }
+
+    private static BinaryNode longs(TokenType op) {
+        switch (op) {
+            case PLUS: case MINUS: case STAR:
+            case LESS: case LESS_EQUAL: case GREATER: case GREATER_EQUAL: case EQUAL_EQUAL: case BANG_EQUAL:
+                return new Longs(op);
+            default:
+                return GENERIC;
+        }
+    }
+
+    private static BinaryNode doubles(TokenType op) {
+        switch (op) {
+            case PLUS: case MINUS: case STAR: case SLASH:
+            case LESS: case LESS_EQUAL: case GREATER: case GREATER_EQUAL:
+                return new Doubles(op);
+            default:
+                return GENERIC;
+        }
+    }
+}
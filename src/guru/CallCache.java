@@ -0,0 +1,27 @@
+package guru;
+
+/*
+ * Cache of one call site: the last callee that took exactly as many arguments as the
+ * site passes, so that calling it again skips the arity checks. Partial applications
+ * are not cached. A class's arity follows its constructor, so hits on a class also
+ * check that its version has not moved.
+ */
+final class CallCache {
+    private GCallable target;
+    private int version;
+
+    // false when the call is partial; self is 1 when the arguments start with the receiver of a method
+    boolean exact(GCallable func, int argc, int self, Token paren) {
+        if (func == target && version(func) == version) return true;
+        int arity = func.arity();
+        if (argc < arity) return false;
+        if (argc != arity && arity != -1) throw new Interpreter.RE("Not Enough (or too many) arguments: expected "+ (arity - self) + ", got: "+ (argc - self), paren);
+        target = func;
+        version = version(func);
+        return true;
+    }
+
+    private static int version(GCallable func) {
+        return func instanceof GClass ? ((GClass) func).version() : 0;
+    }
+}
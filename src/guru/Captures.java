@@ -0,0 +1,47 @@
+package guru;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * What a closure takes along from where it is made: for each variable of an enclosing
+ * function that it uses, where to read it from at that point. The values are copied into
+ * a flat environment that is the parent of every frame of the closure, so a closure
+ * keeps alive only what it uses, one step away. A variable that is both captured and
+ * assigned lives in an Environment.Cell, shared by its frame and every closure that
+ * took it.
+ */
+final class Captures {
+    final List<String> names = new ArrayList<>();
+    private int[] depths = new int[0], slots = new int[0];
+    // parameters that need a cell, made when the function is entered
+    int[] cells = new int[0];
+
+    int add(String name, int depth, int slot) {
+        names.add(name);
+        depths = append(depths, depth);
+        slots = append(slots, slot);
+        return names.size() - 1;
+    }
+
+    static int[] append(int[] array, int value) {
+        int[] grown = Arrays.copyOf(array, array.length + 1);
+        grown[array.length] = value;
+        return grown;
+    }
+
+    // the parent for the frames of a closure made in env
+    Environment capture(Environment env) {
+        if (slots.length == 0) return null;
+        Environment flat = new Environment(null, slots.length);
+        for (int i = 0; i < slots.length; i++) {
+            flat.slots[i] = env.capture(depths[i], slots[i]);
+        }
+        return flat;
+    }
+
+    void box(Environment frame) {
+        for (int slot : cells) frame.slots[slot] = new Environment.Cell(frame.slots[slot]);
+    }
+}
@@ -0,0 +1,56 @@
+package guru;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class Chunk {
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    int count = 0;
+    Object[] constants;
+    // the inline cache of each property site, by the index of the site's name in constants
+    PropertyCache[] caches;
+    private final List<Object> pool = new ArrayList<>();
+    private final List<Integer> sites = new ArrayList<>();
+    private final Map<Object, Integer> shared = new HashMap<>();
+
+    void write(int b, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = (byte) b;
+        lines[count++] = line;
+    }
+
+    void writeShort(int s, int line) {
+        write((s >> 8) & 0xff, line);
+        write(s & 0xff, line);
+    }
+
+    int addConstant(Object value) {
+        boolean literal = value instanceof Double || value instanceof Long || value instanceof String;
+        if (literal && shared.containsKey(value)) return shared.get(value);
+        pool.add(value);
+        if (literal) shared.put(value, pool.size() - 1);
+        return pool.size() - 1;
+    }
+
+    // names are never shared, so each site gets a cache of its own
+    int addSite(Token name) {
+        int k = addConstant(name);
+        sites.add(k);
+        return k;
+    }
+
+    void seal() {
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constants = pool.toArray();
+        caches = new PropertyCache[constants.length];
+        for (int k : sites) caches[k] = new PropertyCache();
+    }
+}
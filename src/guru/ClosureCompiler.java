@@ -0,0 +1,620 @@
+package guru;
+
+import static guru.Interpreter.isTruthy;
+import static guru.Interpreter.isEqual;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import guru.Interpreter.RE;
+
+/*
+ * Lowers the resolved tree into closures once, before anything runs: every node
+ * gets its children already linked and its operator, variable access path and
+ * scope shape already picked, so executing a node is a single call with no
+ * visitor or operator dispatch. Globals and the natives live in the interpreter
+ * it is given, which is also what gets handed to callables.
+ */
+class ClosureCompiler implements Expr.Visitor<ClosureCompiler.Node>, Stmt.Visitor<ClosureCompiler.Node> {
+    interface Node {
+        Object run(Environment env);
+    }
+
+    private final Interpreter runtime;
+
+    ClosureCompiler(Interpreter runtime) {
+        this.runtime = runtime;
+    }
+
+    void run(List<Stmt> stmts) {
+        List<Node> nodes = new ArrayList<>(stmts.size());
+        for (Stmt stmt : stmts) {
+            if (stmt != null) nodes.add(stmt.accept(this));
+        }
+        for (Node node : nodes) {
+            node.run(null);
+        }
+    }
+
+    private Node[] link(List<? extends Expr> exprs) {
+        Node[] nodes = new Node[exprs.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = exprs.get(i).accept(this);
+        }
+        return nodes;
+    }
+
+    @Override
+    public Node visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        return env -> value;
+    }
+
+    @Override
+    public Node visitGroupingExpr(Expr.Grouping expr) {
+        return expr.expression.accept(this);
+    }
+
+    @Override
+    public Node visitUnaryExpr(Expr.Unary expr) {
+        Node right = expr.right.accept(this);
+        Token op = expr.operator;
+        switch (op.type) {
+            case BANG:
+                return env -> !isTruthy(right.run(env));
+            case MINUS:
+                return env -> {
+                    Object r = right.run(env);
+                    return r instanceof Double ? -(Double) r : Numbers.negate(RE.chNum(op, r));
+                };
+            default:
+                return env -> null;
+        }
+    }
+
+    @Override
+    public Node visitBinaryExpr(Expr.Binary expr) {
+        Node left = expr.left.accept(this);
+        Node right = expr.right.accept(this);
+        Token op = expr.operator;
+        switch (op.type) {
+            case BANG_EQUAL:
+                return env -> !isEqual(left.run(env), right.run(env));
+            case EQUAL_EQUAL:
+                return env -> isEqual(left.run(env), right.run(env));
+            case GREATER_EQUAL:
+                return env -> {
+                    Object l = left.run(env), r = right.run(env);
+                    if (l instanceof Long && r instanceof Long) return (Long) l >= (Long) r;
+                    if (l instanceof Double && r instanceof Double) return (Double) l >= (Double) r;
+                    return Interpreter.binary(op, l, r);
+                };
+            case GREATER:
+                return env -> {
+                    Object l = left.run(env), r = right.run(env);
+                    if (l instanceof Long && r instanceof Long) return (Long) l > (Long) r;
+                    if (l instanceof Double && r instanceof Double) return (Double) l > (Double) r;
+                    return Interpreter.binary(op, l, r);
+                };
+            case LESS_EQUAL:
+                return env -> {
+                    Object l = left.run(env), r = right.run(env);
+                    if (l instanceof Long && r instanceof Long) return (Long) l <= (Long) r;
+                    if (l instanceof Double && r instanceof Double) return (Double) l <= (Double) r;
+                    return Interpreter.binary(op, l, r);
+                };
+            case LESS:
+                return env -> {
+                    Object l = left.run(env), r = right.run(env);
+                    if (l instanceof Long && r instanceof Long) return (Long) l < (Long) r;
+                    if (l instanceof Double && r instanceof Double) return (Double) l < (Double) r;
+                    return Interpreter.binary(op, l, r);
+                };
+            case MINUS:
+                return env -> {
+                    Object l = left.run(env), r = right.run(env);
+                    if (l instanceof Long && r instanceof Long) return Numbers.subtract((long) (Long) l, (long) (Long) r);
+                    if (l instanceof Double && r instanceof Double) return (Double) l - (Double) r;
+                    return Interpreter.binary(op, l, r);
+                };
+            case SLASH:
+                return env -> {
+                    Object l = left.run(env), r = right.run(env);
+                    if (l instanceof Long && r instanceof Long) return Numbers.divide((long) (Long) l, (long) (Long) r);
+                    if (l instanceof Double && r instanceof Double) return (Double) l / (Double) r;
+                    return Interpreter.binary(op, l, r);
+                };
+            case STAR:
+                return env -> {
+                    Object l = left.run(env), r = right.run(env);
+                    if (l instanceof Long && r instanceof Long) return Numbers.multiply((long) (Long) l, (long) (Long) r);
+                    if (l instanceof Double && r instanceof Double) return (Double) l * (Double) r;
+                    return Interpreter.binary(op, l, r);
+                };
+            case PLUS:
+                return env -> {
+                    Object l = left.run(env), r = right.run(env);
+                    if (l instanceof Long && r instanceof Long) return Numbers.add((long) (Long) l, (long) (Long) r);
+                    if (l instanceof Double && r instanceof Double) return (Double) l + (Double) r;
+                    return Interpreter.binary(op, l, r);
+                };
+            default:
+                return env -> {
+                    left.run(env);
+                    right.run(env);
+                    return null;
+                };
+        }
+    }
+
+    @Override
+    public Node visitLogikaExpr(Expr.Logika expr) {
+        Node left = expr.left.accept(this);
+        Node right = expr.right.accept(this);
+        if (expr.operator.type == TokenType.OR) {
+            return env -> {
+                Object l = left.run(env);
+                return isTruthy(l) ? l : right.run(env);
+            };
+        }
+        return env -> {
+            Object l = left.run(env);
+            return !isTruthy(l) ? l : right.run(env);
+        };
+    }
+
+    @Override
+    public Node visitCommaExpressionsExpr(Expr.CommaExpressions expr) {
+        Node[] nodes = link(expr.expressionList);
+        return env -> {
+            Object ret = null;
+            for (Node node : nodes) {
+                ret = node.run(env);
+            }
+            return ret;
+        };
+    }
+
+    private Node lookup(int depth, int slot, Token name) {
+        switch (depth) {
+            case -1:
+                Globals globals = runtime.globals;
+                return env -> globals.get(slot, name);
+            case 0:
+                return env -> Environment.value(env.slots[slot]);
+            case 1:
+                return env -> Environment.value(env.parent.slots[slot]);
+            default:
+                return env -> env.getAt(depth, slot);
+        }
+    }
+
+    @Override
+    public Node visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth == -1) {
+            // the const it carries is dropped if the REPL redefines it
+            Globals globals = runtime.globals;
+            int slot = expr.slot;
+            Token name = expr.name;
+            return env -> {
+                Object val = expr.constant;
+                return val != null ? val : globals.get(slot, name);
+            };
+        }
+        return lookup(expr.depth, expr.slot, expr.name);
+    }
+
+    @Override
+    public Node visitAssignmentExpr(Expr.Assignment expr) {
+        Node value = expr.value.accept(this);
+        Token name = expr.name;
+        int slot = expr.slot;
+        switch (expr.depth) {
+            case -1:
+                return env -> {
+                    Object val = value.run(env);
+                    runtime.globals.assign(slot, name, val);
+                    return val;
+                };
+            case 0:
+                return env -> {
+                    Object val = value.run(env);
+                    env.assign(slot, val);
+                    return val;
+                };
+            default:
+                int depth = expr.depth;
+                return env -> {
+                    Object val = value.run(env);
+                    env.assignAt(depth, slot, val);
+                    return val;
+                };
+        }
+    }
+
+    @Override
+    public Node visitIfExpr(Expr.If expr) {
+        Node cond = expr.cond.accept(this);
+        Node iftrue = expr.iftrue.accept(this);
+        if (expr.iffalse == null) return env -> isTruthy(cond.run(env)) ? iftrue.run(env) : null;
+        Node iffalse = expr.iffalse.accept(this);
+        return env -> isTruthy(cond.run(env)) ? iftrue.run(env) : iffalse.run(env);
+    }
+
+    @Override
+    public Node visitWhileExpr(Expr.While expr) {
+        Node cond = expr.cond.accept(this);
+        Node body = expr.body.accept(this);
+        return env -> {
+            Object res = null;
+            while (isTruthy(cond.run(env))) {
+                res = body.run(env);
+            }
+            return res;
+        };
+    }
+
+    @Override
+    public Node visitBlockExpr(Expr.Block expr) {
+        int size = expr.size;
+        Node[] nodes = new Node[expr.stmts.size()];
+        int last = -1;
+        for (int i = 0; i < nodes.length; i++) {
+            Stmt stmt = expr.stmts.get(i);
+            if (stmt instanceof Stmt.Statement) last = i;
+            nodes[i] = stmt.accept(this);
+        }
+        int result = last;
+        if (expr.flat) {
+            return env -> {
+                Object ret = null;
+                for (int i = 0; i < nodes.length; i++) {
+                    Object val = nodes[i].run(env);
+                    if (i == result) ret = val;
+                }
+                return ret;
+            };
+        }
+        return env -> {
+            Environment inner = new Environment(env, size);
+            Object ret = null;
+            for (int i = 0; i < nodes.length; i++) {
+                Object val = nodes[i].run(inner);
+                if (i == result) ret = val;
+            }
+            return ret;
+        };
+    }
+
+    @Override
+    public Node visitWithExpr(Expr.With expr) {
+        int size = expr.size;
+        Node[] stmts = new Node[expr.stmts.size()];
+        for (int i = 0; i < stmts.length; i++) {
+            stmts[i] = expr.stmts.get(i).accept(this);
+        }
+        Node body = expr.body.accept(this);
+        if (expr.flat) {
+            return env -> {
+                for (Node stmt : stmts) {
+                    stmt.run(env);
+                }
+                return body.run(env);
+            };
+        }
+        return env -> {
+            Environment inner = new Environment(env, size);
+            for (Node stmt : stmts) {
+                stmt.run(inner);
+            }
+            return body.run(inner);
+        };
+    }
+
+    @Override
+    public Node visitCallExpr(Expr.Call expr) {
+        Node[] args = link(expr.args);
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr.callee;
+            Node receiver = get.obj.accept(this);
+            return env -> {
+                Object obj = receiver.run(env);
+                Object func = Interpreter.method(obj, get);
+                if (!(func instanceof GCallable)) throw new RE("not a funciton, you moron", expr.paren);
+                return invoke(expr, (GCallable) func, obj, ((GCallable) func).isStatic() ? 0 : 1, args, env);
+            };
+        }
+        Node callee = expr.callee.accept(this);
+        return env -> {
+            Object func = callee.run(env);
+            if (!(func instanceof GCallable)) throw new RE("not a funciton, you moron", expr.paren);
+            return invoke(expr, (GCallable) func, null, 0, args, env);
+        };
+    }
+
+    @Override
+    public Node visitInlineExpr(Expr.Inline expr) {
+        Expr.Call call = expr.call;
+        Node[] args = link(call.args);
+        Node body = expr.body.accept(this);
+        Captures target = expr.target;
+        int base = expr.base;
+        boolean self = expr.self;
+        Expr.Get get = call.callee instanceof Expr.Get ? (Expr.Get) call.callee : null;
+        Node callee = get != null ? get.obj.accept(this) : call.callee.accept(this);
+        return env -> {
+            Object obj = null, func;
+            if (get != null) {
+                obj = callee.run(env);
+                func = Interpreter.inlined(obj, get);
+            } else {
+                func = callee.run(env);
+            }
+            if (func instanceof GCallable && ((GCallable) func).captures() == target) {
+                int slot = base;
+                if (self) env.slots[slot++] = obj;
+                for (Node arg : args) {
+                    env.slots[slot++] = arg.run(env);
+                }
+                return body.run(env);
+            }
+            if (get != null) func = Interpreter.method(obj, get);
+            if (!(func instanceof GCallable)) throw new RE("not a funciton, you moron", call.paren);
+            int receiver = get != null && !((GCallable) func).isStatic() ? 1 : 0;
+            return invoke(call, (GCallable) func, obj, receiver, args, env);
+        };
+    }
+
+    // self is 1 when obj goes in front of the arguments
+    private Object invoke(Expr.Call site, GCallable func, Object obj, int self, Node[] args, Environment env) {
+        int argc = args.length + self;
+        if (argc <= 2 && !site.tail) {
+            Object a = obj, b = null;
+            if (self == 0 && argc > 0) a = args[0].run(env);
+            if (argc == 2) b = args[1 - self].run(env);
+            if (!site.cache.exact(func, argc, self, site.paren)) return Interpreter.curry(func, Arrays.copyOf(new Object[] {a, b}, argc));
+            if (argc == 0) return func.call0(runtime);
+            return argc == 1 ? func.call1(runtime, a) : func.call2(runtime, a, b);
+        }
+        Object[] fargs = new Object[argc];
+        if (self == 1) fargs[0] = obj;
+        for (int k = self; k < argc; k++) {
+            fargs[k] = args[k - self].run(env);
+        }
+        if (!site.cache.exact(func, argc, self, site.paren)) return Interpreter.curry(func, fargs);
+        return site.tail ? new Interpreter.TailCall(func, fargs) : func.callN(runtime, fargs);
+    }
+
+    @Override
+    public Node visitGetExpr(Expr.Get expr) {
+        Node obj = expr.obj.accept(this);
+        Token name = expr.name;
+        PropertyCache cache = expr.cache;
+        return env -> cache.get(obj.run(env), name);
+    }
+
+    @Override
+    public Node visitSetExpr(Expr.Set expr) {
+        Node value = expr.value.accept(this);
+        Node obj = expr.obj.accept(this);
+        Token name = expr.name;
+        PropertyCache cache = expr.cache;
+        return env -> {
+            Object val = value.run(env);
+            return cache.set(obj.run(env), name, val);
+        };
+    }
+
+    private Function<Environment, GCallable> function(String name, List<Token> params, Expr expression, int size, boolean isStatic, Captures captures) {
+        Node body = expression.accept(this);
+        int count = params.size();
+        boolean cells = captures.cells.length > 0;
+        return env -> new GCallable() {
+            private final Environment closure = captures.capture(env);
+
+            @Override
+            public String toString() {
+                return name == null ? "function anon" : "function " + name;
+            }
+            @Override
+            public int arity() {
+                return count;
+            }
+            @Override
+            public Object callN(Interpreter i, Object[] args) {
+                return Interpreter.trampoline(i, enterN(i, args));
+            }
+            @Override
+            public Object call0(Interpreter i) {
+                Environment frame = new Environment(closure, size);
+                if (cells) captures.box(frame);
+                return Interpreter.trampoline(i, body.run(frame));
+            }
+            @Override
+            public Object call1(Interpreter i, Object a) {
+                Environment frame = new Environment(closure, size);
+                if (count > 0) frame.slots[0] = a;
+                if (cells) captures.box(frame);
+                return Interpreter.trampoline(i, body.run(frame));
+            }
+            @Override
+            public Object call2(Interpreter i, Object a, Object b) {
+                Environment frame = new Environment(closure, size);
+                if (count > 0) frame.slots[0] = a;
+                if (count > 1) frame.slots[1] = b;
+                if (cells) captures.box(frame);
+                return Interpreter.trampoline(i, body.run(frame));
+            }
+            @Override
+            public Object enterN(Interpreter i, Object[] args) {
+                Environment frame = new Environment(closure, size);
+                System.arraycopy(args, 0, frame.slots, 0, Math.min(count, args.length));
+                if (cells) captures.box(frame);
+                return body.run(frame);
+            }
+            @Override
+            public boolean isStatic() {
+                return isStatic;
+            }
+            @Override
+            public Captures captures() {
+                return captures;
+            }
+        };
+    }
+
+    private Function<Environment, GCallable> function(Stmt.Fun stmt) {
+        return function(stmt.name.lexeme, stmt.args, stmt.expression, stmt.size, stmt.isStatic, stmt.captures);
+    }
+
+    @Override
+    public Node visitLambdaExpr(Expr.Lambda expr) {
+        Function<Environment, GCallable> make = function(null, expr.args, expr.expression, expr.size, expr.isStatic, expr.captures);
+        return make::apply;
+    }
+
+    private Node define(int slot, int global, Node value, boolean cell) {
+        if (slot == -1) {
+            Globals globals = runtime.globals;
+            return env -> {
+                globals.define(global, value == null ? null : value.run(env));
+                return null;
+            };
+        }
+        if (cell) {
+            // stored before the value is made, so closures made by it can capture it
+            return env -> {
+                Environment.Cell c = new Environment.Cell(null);
+                env.slots[slot] = c;
+                c.value = value == null ? null : value.run(env);
+                return null;
+            };
+        }
+        return env -> {
+            env.slots[slot] = value == null ? null : value.run(env);
+            return null;
+        };
+    }
+
+    @Override
+    public Node visitFunStmt(Stmt.Fun stmt) {
+        Function<Environment, GCallable> make = function(stmt);
+        return define(stmt.slot, stmt.global, make::apply, stmt.cell);
+    }
+
+    @Override
+    public Node visitVarStmt(Stmt.Var stmt) {
+        return define(stmt.slot, stmt.global, stmt.expression == null ? null : stmt.expression.accept(this), stmt.cell);
+    }
+
+    @Override
+    public Node visitConstStmt(Stmt.Const stmt) {
+        if (stmt.slot != -1) return define(stmt.slot, -1, stmt.expression == null ? null : stmt.expression.accept(this), false);
+        Node value = stmt.expression == null ? null : stmt.expression.accept(this);
+        Globals globals = runtime.globals;
+        int global = stmt.global;
+        return env -> {
+            globals.defineConst(global, value == null ? null : value.run(env));
+            return null;
+        };
+    }
+
+    @Override
+    public Node visitStatementStmt(Stmt.Statement stmt) {
+        return stmt.expression.accept(this);
+    }
+
+    @Override
+    public Node visitPrintStmt(Stmt.Print stmt) {
+        Node value = stmt.expression.accept(this);
+        return env -> {
+            Object val = value.run(env);
+            System.out.println(val == null ? "nothing" : Numbers.stringify(val));
+            return null;
+        };
+    }
+
+    private Function<Environment, GClass> methods(String name, List<Stmt.Fun> methods) {
+        List<Function<Environment, GCallable>> makes = new ArrayList<>(methods.size());
+        for (Stmt.Fun f : methods) {
+            makes.add(function(f));
+        }
+        return env -> {
+            GClass cl = name == null ? new GClass() : new GClass(name);
+            for (int i = 0; i < makes.size(); i++) {
+                GCallable method = makes.get(i).apply(env);
+                String m = methods.get(i).name.lexeme;
+                cl.define(m, method);
+                if (method.isStatic()) cl.put(m, method);
+            }
+            return cl;
+        };
+    }
+
+    private Function<Environment, GClass> klass(Stmt.Class stmt) {
+        Function<Environment, GClass> make = methods(stmt.name.lexeme, stmt.methods);
+        Globals globals = runtime.globals;
+        int slot = stmt.slot, global = stmt.global;
+        if (stmt.cell) {
+            return env -> {
+                Environment.Cell c = new Environment.Cell(null);
+                env.slots[slot] = c;
+                GClass cl = make.apply(env);
+                c.value = cl;
+                return cl;
+            };
+        }
+        return env -> {
+            GClass cl = make.apply(env);
+            if (slot == -1) globals.define(global, cl); else env.slots[slot] = cl;
+            return cl;
+        };
+    }
+
+    @Override
+    public Node visitClassStmt(Stmt.Class stmt) {
+        Function<Environment, GClass> make = klass(stmt);
+        return env -> {
+            make.apply(env);
+            return null;
+        };
+    }
+
+    @Override
+    public Node visitAnonExpr(Expr.Anon expr) {
+        Function<Environment, GClass> make = methods(null, expr.methods);
+        return make::apply;
+    }
+
+    private static GClass father(Object father, Token name) {
+        if (!(father instanceof GClass)) throw new RE("no father class with such a name found", name);
+        return (GClass) father;
+    }
+
+    @Override
+    public Node visitExtendClassStmt(Stmt.ExtendClass stmt) {
+        Node father = lookup(stmt.depth, stmt.slot, stmt.father);
+        Function<Environment, GClass> make = klass(stmt.def);
+        Token name = stmt.father;
+        return env -> {
+            GClass sup = father(father.run(env), name);
+            make.apply(env).inherit(sup);
+            return null;
+        };
+    }
+
+    @Override
+    public Node visitExtendAnonExpr(Expr.ExtendAnon expr) {
+        Node father = lookup(expr.depth, expr.slot, expr.father);
+        Function<Environment, GClass> make = methods(null, expr.def.methods);
+        Token name = expr.father;
+        return env -> {
+            GClass sup = father(father.run(env), name);
+            GClass son = make.apply(env);
+            son.inherit(sup);
+            return son;
+        };
+    }
+}
@@ -0,0 +1,546 @@
+package guru;
+
+import static guru.OpCode.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import guru.Expr.Anon;
+import guru.Expr.Assignment;
+import guru.Expr.Binary;
+import guru.Expr.Block;
+import guru.Expr.Call;
+import guru.Expr.CommaExpressions;
+import guru.Expr.ExtendAnon;
+import guru.Expr.Get;
+import guru.Expr.Grouping;
+import guru.Expr.If;
+import guru.Expr.Lambda;
+import guru.Expr.Literal;
+import guru.Expr.Logika;
+import guru.Expr.Set;
+import guru.Expr.Unary;
+import guru.Expr.Variable;
+import guru.Expr.While;
+import guru.Expr.With;
+import guru.Stmt.Class;
+import guru.Stmt.Const;
+import guru.Stmt.ExtendClass;
+import guru.Stmt.Fun;
+import guru.Stmt.Print;
+import guru.Stmt.Statement;
+import guru.Stmt.Var;
+
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_SLOTS = 255;
+
+    private static class Local {
+        final String name;
+        int depth;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Capture {
+        final int index;
+        final boolean local;
+
+        Capture(int index, boolean local) {
+            this.index = index;
+            this.local = local;
+        }
+    }
+
+    private final VM vm;
+    private final Compiler enclosing;
+    private final Proto proto;
+    private final Chunk chunk;
+    private final List<Local> locals = new ArrayList<>();
+    private final List<Capture> captures = new ArrayList<>();
+    private int depth = 0;
+    private int line = 1;
+
+    Compiler(VM vm) {
+        this(vm, null, new Proto("script", 0, false));
+    }
+
+    private Compiler(VM vm, Compiler enclosing, Proto proto) {
+        this.vm = vm;
+        this.enclosing = enclosing;
+        this.proto = proto;
+        this.chunk = proto.chunk;
+    }
+
+    Proto compile(List<Stmt> stmts) {
+        for (Stmt stmt : stmts) {
+            if (stmt != null) stmt.accept(this);
+        }
+        emit(NIL);
+        emit(RETURN);
+        chunk.seal();
+        return proto;
+    }
+
+    private void emit(int b) {
+        chunk.write(b, line);
+    }
+
+    private void emit(int op, Object constant) {
+        boolean site = op == GET_PROPERTY || op == SET_PROPERTY || op == INVOKE || op == TAIL_INVOKE;
+        int k = site ? chunk.addSite((Token) constant) : chunk.addConstant(constant);
+        if (k > 0xffff) Guru.error(line, "Too many constants in one chunk.");
+        emit(op);
+        chunk.writeShort(k, line);
+    }
+
+    private void global(int op, Token name) {
+        emit(op);
+        chunk.writeShort(vm.global(name.lexeme), line);
+        if (op == GET_GLOBAL || op == SET_GLOBAL) chunk.writeShort(chunk.addConstant(name), line);
+    }
+
+    private int jump(int op) {
+        emit(op);
+        emit(0xff);
+        emit(0xff);
+        return chunk.count - 2;
+    }
+
+    private void patch(int at) {
+        int offset = chunk.count - at - 2;
+        if (offset > 0xffff) Guru.error(line, "Too much code to jump over.");
+        chunk.code[at] = (byte) ((offset >> 8) & 0xff);
+        chunk.code[at + 1] = (byte) (offset & 0xff);
+    }
+
+    private void loop(int start) {
+        emit(LOOP);
+        int offset = chunk.count - start + 2;
+        if (offset > 0xffff) Guru.error(line, "Loop body too large.");
+        chunk.writeShort(offset, line);
+    }
+
+    private void beginScope() {
+        depth++;
+    }
+
+    private void endScope() {
+        depth--;
+        int n = 0;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > depth) {
+            locals.remove(locals.size() - 1);
+            n++;
+        }
+        if (n > 0) {
+            emit(CLOSE_SCOPE);
+            emit(n);
+        }
+    }
+
+    private boolean declare(Token name) {
+        if (depth == 0) return false;
+        if (locals.size() == MAX_SLOTS) Guru.error(name, "Too many local variables in function.");
+        locals.add(new Local(name.lexeme, -1));
+        return true;
+    }
+
+    private void define() {
+        locals.get(locals.size() - 1).depth = depth;
+    }
+
+    private int resolveLocal(String name) {
+        for (int i = locals.size() - 1; i >= 0; i--) {
+            if (locals.get(i).name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private int local(Expr expr) {
+        return expr instanceof Variable ? resolveLocal(((Variable) expr).name.lexeme) : -1;
+    }
+
+    private int resolveCapture(String name) {
+        if (enclosing == null) return -1;
+        int local = enclosing.resolveLocal(name);
+        if (local != -1) return capture(local, true);
+        int up = enclosing.resolveCapture(name);
+        if (up != -1) return capture(up, false);
+        return -1;
+    }
+
+    private int capture(int index, boolean local) {
+        for (int i = 0; i < captures.size(); i++) {
+            Capture c = captures.get(i);
+            if (c.index == index && c.local == local) return i;
+        }
+        if (captures.size() == MAX_SLOTS) Guru.error(line, "Too many closure variables in function.");
+        captures.add(new Capture(index, local));
+        return captures.size() - 1;
+    }
+
+    private void get(Token name) {
+        line = name.line;
+        int slot = resolveLocal(name.lexeme);
+        if (slot != -1) {
+            emit(GET_LOCAL);
+            emit(slot);
+        } else if ((slot = resolveCapture(name.lexeme)) != -1) {
+            emit(GET_UPVALUE);
+            emit(slot);
+        } else {
+            global(GET_GLOBAL, name);
+        }
+    }
+
+    private void function(String name, List<Token> params, Expr body, boolean isStatic) {
+        Compiler c = new Compiler(vm, this, new Proto(name, params.size(), isStatic));
+        c.line = line;
+        c.depth = 1;
+        if (params.size() > MAX_SLOTS) Guru.error(line, "Too many parameters.");
+        for (Token param : params) {
+            c.declare(param);
+            c.define();
+        }
+        body.accept(c);
+        c.emit(RETURN);
+        c.chunk.seal();
+        c.proto.upvalues = c.captures.size();
+
+        emit(CLOSURE, c.proto);
+        for (Capture capture : c.captures) {
+            emit(capture.local ? 1 : 0);
+            emit(capture.index);
+        }
+    }
+
+    private void methods(List<Stmt.Fun> methods) {
+        for (Stmt.Fun f : methods) {
+            line = f.name.line;
+            function(f.name.lexeme, f.args, f.expression, f.isStatic);
+            emit(METHOD, f.name.lexeme);
+        }
+    }
+
+    @Override
+    public Void visitStatementStmt(Statement stmt) {
+        if (stmt.expression instanceof Assignment) {
+            Assignment assignment = (Assignment) stmt.expression;
+            int slot = resolveLocal(assignment.name.lexeme);
+            if (slot != -1) {
+                assignment.value.accept(this);
+                emit(SET_LOCAL_POP);
+                emit(slot);
+                return null;
+            }
+        }
+        stmt.expression.accept(this);
+        emit(POP);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Var stmt) {
+        line = stmt.name.line;
+        boolean local = declare(stmt.name);
+        if (stmt.expression == null) emit(NIL); else stmt.expression.accept(this);
+        if (local) define(); else global(DEFINE_GLOBAL, stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitConstStmt(Const stmt) {
+        line = stmt.name.line;
+        boolean local = declare(stmt.name);
+        stmt.expression.accept(this);
+        if (local) define(); else global(DEFINE_CONST, stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitFunStmt(Fun stmt) {
+        line = stmt.name.line;
+        boolean local = declare(stmt.name);
+        if (local) define();
+        function(stmt.name.lexeme, stmt.args, stmt.expression, stmt.isStatic);
+        if (!local) global(DEFINE_GLOBAL, stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Class stmt) {
+        line = stmt.name.line;
+        boolean local = declare(stmt.name);
+        if (local) define();
+        emit(CLASS, stmt.name.lexeme);
+        methods(stmt.methods);
+        if (!local) global(DEFINE_GLOBAL, stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitExtendClassStmt(ExtendClass stmt) {
+        get(stmt.father);
+        line = stmt.def.name.line;
+        boolean local = declare(stmt.def.name);
+        if (local) define();
+        emit(CLASS, stmt.def.name.lexeme);
+        methods(stmt.def.methods);
+        emit(INHERIT, stmt.father);
+        if (!local) global(DEFINE_GLOBAL, stmt.def.name);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Print stmt) {
+        stmt.expression.accept(this);
+        emit(PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitLambdaExpr(Lambda expr) {
+        function(null, expr.args, expr.expression, expr.isStatic);
+        return null;
+    }
+
+    @Override
+    public Void visitAnonExpr(Anon expr) {
+        emit(CLASS, "anonymous");
+        methods(expr.methods);
+        return null;
+    }
+
+    @Override
+    public Void visitExtendAnonExpr(ExtendAnon expr) {
+        get(expr.father);
+        expr.def.accept(this);
+        emit(INHERIT, expr.father);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Get expr) {
+        expr.obj.accept(this);
+        line = expr.name.line;
+        emit(GET_PROPERTY, expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Set expr) {
+        expr.value.accept(this);
+        expr.obj.accept(this);
+        line = expr.name.line;
+        emit(SET_PROPERTY, expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Binary expr) {
+        byte op;
+        switch (expr.operator.type) {
+            case BANG_EQUAL: op = NOT_EQUAL; break;
+            case EQUAL_EQUAL: op = EQUAL; break;
+            case GREATER: op = GREATER; break;
+            case GREATER_EQUAL: op = GREATER_EQUAL; break;
+            case LESS: op = LESS; break;
+            case LESS_EQUAL: op = LESS_EQUAL; break;
+            case PLUS: op = ADD; break;
+            case MINUS: op = SUBTRACT; break;
+            case STAR: op = MULTIPLY; break;
+            case SLASH: op = DIVIDE; break;
+            default:
+                expr.left.accept(this);
+                expr.right.accept(this);
+                emit(POP);
+                emit(POP);
+                emit(NIL);
+                return null;
+        }
+        int left = local(expr.left);
+        int right = local(expr.right);
+        line = expr.operator.line;
+        if (left != -1 && right != -1) {
+            emit(op + EQUAL_LL - EQUAL);
+            emit(left);
+            emit(right);
+        } else if (left != -1 && expr.right instanceof Literal && Numbers.isNumber(((Literal) expr.right).value)) {
+            emit(op + EQUAL_LK - EQUAL);
+            emit(left);
+            chunk.writeShort(chunk.addConstant(((Literal) expr.right).value), line);
+        } else {
+            expr.left.accept(this);
+            expr.right.accept(this);
+            line = expr.operator.line;
+            emit(op);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogikaExpr(Logika expr) {
+        expr.left.accept(this);
+        line = expr.operator.line;
+        int end = jump(expr.operator.type == TokenType.OR ? JUMP_IF_TRUE : JUMP_IF_FALSE);
+        emit(POP);
+        expr.right.accept(this);
+        patch(end);
+        return null;
+    }
+
+    // calls are only inlined into code whose locals live in slots, which the VM's do not
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        throw new IllegalStateException("inlined call in vm code");
+    }
+
+    @Override
+    public Void visitCallExpr(Call expr) {
+        if (expr.args.size() > MAX_SLOTS) Guru.error(expr.paren, "Too many arguments.");
+        if (expr.callee instanceof Get) {
+            Get get = (Get) expr.callee;
+            get.obj.accept(this);
+            for (Expr arg : expr.args) arg.accept(this);
+            line = expr.paren.line;
+            emit(expr.tail ? TAIL_INVOKE : INVOKE, get.name);
+            emit(expr.args.size());
+            return null;
+        }
+        expr.callee.accept(this);
+        for (Expr arg : expr.args) arg.accept(this);
+        line = expr.paren.line;
+        emit(expr.tail ? TAIL_CALL : CALL);
+        emit(expr.args.size());
+        return null;
+    }
+
+    @Override
+    public Void visitWhileExpr(While expr) {
+        emit(NIL);
+        int start = chunk.count;
+        expr.cond.accept(this);
+        int exit = jump(POP_JUMP_IF_FALSE);
+        emit(POP);
+        expr.body.accept(this);
+        loop(start);
+        patch(exit);
+        return null;
+    }
+
+    @Override
+    public Void visitWithExpr(With expr) {
+        beginScope();
+        for (Stmt.Var var : expr.stmts) var.accept(this);
+        expr.body.accept(this);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Grouping expr) {
+        expr.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitIfExpr(If expr) {
+        expr.cond.accept(this);
+        int otherwise = jump(POP_JUMP_IF_FALSE);
+        expr.iftrue.accept(this);
+        int end = jump(JUMP);
+        patch(otherwise);
+        if (expr.iffalse == null) emit(NIL); else expr.iffalse.accept(this);
+        patch(end);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockExpr(Block expr) {
+        beginScope();
+        int last = -1;
+        for (int i = 0; i < expr.stmts.size(); i++) {
+            if (expr.stmts.get(i) instanceof Stmt.Statement) last = i;
+        }
+        int result = -1;
+        for (int i = 0; i < expr.stmts.size(); i++) {
+            Stmt stmt = expr.stmts.get(i);
+            if (i != last) {
+                stmt.accept(this);
+                continue;
+            }
+            ((Stmt.Statement) stmt).expression.accept(this);
+            if (i == expr.stmts.size() - 1) {
+                endScope();
+                return null;
+            }
+            locals.add(new Local("", depth));
+            result = locals.size() - 1;
+        }
+        if (result == -1) {
+            emit(NIL);
+        } else {
+            emit(GET_LOCAL);
+            emit(result);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitAssignmentExpr(Assignment expr) {
+        expr.value.accept(this);
+        line = expr.name.line;
+        int slot = resolveLocal(expr.name.lexeme);
+        if (slot != -1) {
+            emit(SET_LOCAL);
+            emit(slot);
+        } else if ((slot = resolveCapture(expr.name.lexeme)) != -1) {
+            emit(SET_UPVALUE);
+            emit(slot);
+        } else {
+            global(SET_GLOBAL, expr.name);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Literal expr) {
+        if (expr.value == null) emit(NIL);
+        else if (expr.value == Boolean.TRUE) emit(TRUE);
+        else if (expr.value == Boolean.FALSE) emit(FALSE);
+        else emit(CONSTANT, expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitCommaExpressionsExpr(CommaExpressions expr) {
+        for (int i = 0; i < expr.expressionList.size(); i++) {
+            if (i > 0) emit(POP);
+            expr.expressionList.get(i).accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Unary expr) {
+        expr.right.accept(this);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case BANG: emit(NOT); break;
+            case MINUS: emit(NEGATE); break;
+            default:
+                emit(POP);
+                emit(NIL);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Variable expr) {
+        get(expr.name);
+        return null;
+    }
+}
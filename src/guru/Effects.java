@@ -0,0 +1,213 @@
+package guru;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * What running a piece of code may change, for the passes that reuse a value computed
+ * apart from it: the variables it writes, the fields it sets, and whether it calls
+ * anything, which may set any field, assign any global and write any variable kept in a
+ * cell. Functions the code makes do nothing until called. Variables are told apart by
+ * frame, counting out from the one the code starts in, and slot.
+ */
+final class Effects extends Rewriter {
+    private boolean calls;
+    private final Set<Object> writes = new HashSet<>();
+    private final Set<String> fields = new HashSet<>();
+
+    private Effects(Frame frame) {
+        frames.add(frame);
+    }
+
+    static Effects of(Frame frame, Expr expr) {
+        Effects effects = new Effects(frame);
+        effects.rewrite(expr);
+        return effects;
+    }
+
+    static Effects of(Frame frame, Stmt stmt) {
+        Effects effects = new Effects(frame);
+        stmt.accept(effects);
+        return effects;
+    }
+
+    // a variable as seen at depth from level frames in
+    private static Object variable(int depth, int slot, int level) {
+        return depth == -1 ? List.of("global", slot) : List.of(depth - level, slot);
+    }
+
+    /*
+     * An expression whose value depends only on the variables and fields it reads, as a
+     * value equal for equal expressions at the same frame; null for anything else. Reading
+     * a field runs no code, but a method comes back bound afresh each time, which identity
+     * tells apart: a value that may be one has a key only as an operand that takes its number.
+     */
+    static Object key(Expr expr, int level, boolean operand) {
+        return operand || !bound(expr) ? key(expr, level) : null;
+    }
+
+    // whether the value of an expression may be a method bound as it is read
+    private static boolean bound(Expr expr) {
+        if (expr instanceof Expr.Get) return true;
+        if (expr instanceof Expr.Grouping) return bound(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Logika) return bound(((Expr.Logika) expr).left) || bound(((Expr.Logika) expr).right);
+        return false;
+    }
+
+    // whether the operands of an expression, itself an operand or not, are taken for their numbers
+    static boolean numbers(Expr expr, boolean operand) {
+        if (expr instanceof Expr.Grouping) return operand;
+        if (expr instanceof Expr.Unary) return ((Expr.Unary) expr).operator.type == TokenType.MINUS;
+        if (!(expr instanceof Expr.Binary)) return false;
+        switch (((Expr.Binary) expr).operator.type) {
+            case PLUS: case MINUS: case STAR: case SLASH:
+            case GREATER: case GREATER_EQUAL: case LESS: case LESS_EQUAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static Object key(Expr expr, int level) {
+        if (expr instanceof Expr.Literal) return Arrays.asList("literal", ((Expr.Literal) expr).value);
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable var = (Expr.Variable) expr;
+            return variable(var.depth, var.slot, level);
+        }
+        if (expr instanceof Expr.Grouping) return key(((Expr.Grouping) expr).expression, level);
+        if (expr instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr;
+            Object obj = key(get.obj, level);
+            return obj == null ? null : List.of("get", obj, get.name.lexeme);
+        }
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            Object right = key(unary.right, level);
+            return right == null ? null : List.of("unary", unary.operator.type, right);
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary b = (Expr.Binary) expr;
+            Object left = key(b.left, level), right = key(b.right, level);
+            return left == null || right == null ? null : List.of(b.operator.type, left, right);
+        }
+        if (expr instanceof Expr.Logika) {
+            Expr.Logika l = (Expr.Logika) expr;
+            Object left = key(l.left, level), right = key(l.right, level);
+            return left == null || right == null ? null : List.of(l.operator.type, left, right);
+        }
+        return null;
+    }
+
+    // the operators an expression with a key evaluates, a field read counting as two
+    static int weight(Expr expr) {
+        if (expr instanceof Expr.Grouping) return weight(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Get) return 2 + weight(((Expr.Get) expr).obj);
+        if (expr instanceof Expr.Unary) return 1 + weight(((Expr.Unary) expr).right);
+        if (expr instanceof Expr.Binary) return 1 + weight(((Expr.Binary) expr).left) + weight(((Expr.Binary) expr).right);
+        if (expr instanceof Expr.Logika) return 1 + weight(((Expr.Logika) expr).left) + weight(((Expr.Logika) expr).right);
+        return 0;
+    }
+
+    // whether an expression with a key, level frames into the code, reads the same before and after it
+    boolean keeps(Expr expr, int level) {
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable var = (Expr.Variable) expr;
+            if (var.depth == -1) return var.constant != null || !calls && !writes.contains(variable(-1, var.slot, level));
+            int outside = var.depth - level;
+            if (outside < 0 || writes.contains(variable(var.depth, var.slot, level))) return false;
+            return !calls || outside == 0 && !frames.get(0).cells.get(var.slot);
+        }
+        if (expr instanceof Expr.Grouping) return keeps(((Expr.Grouping) expr).expression, level);
+        if (expr instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr;
+            return !calls && !fields.contains(get.name.lexeme) && keeps(get.obj, level);
+        }
+        if (expr instanceof Expr.Unary) return keeps(((Expr.Unary) expr).right, level);
+        if (expr instanceof Expr.Binary) return keeps(((Expr.Binary) expr).left, level) && keeps(((Expr.Binary) expr).right, level);
+        if (expr instanceof Expr.Logika) return keeps(((Expr.Logika) expr).left, level) && keeps(((Expr.Logika) expr).right, level);
+        return true;
+    }
+
+    private void write(int depth, int slot) {
+        writes.add(variable(depth, slot, frames.size() - 1));
+    }
+
+    private void declare(int slot, int global) {
+        if (slot == -1) write(-1, global); else write(0, slot);
+    }
+
+    @Override
+    public Expr visitAssignmentExpr(Expr.Assignment expr) {
+        write(expr.depth, expr.slot);
+        return super.visitAssignmentExpr(expr);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        fields.add(expr.name.lexeme);
+        return super.visitSetExpr(expr);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        calls = true;
+        return super.visitCallExpr(expr);
+    }
+
+    // the arguments of an inlined call go to the slots from its base on
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+        calls = true;
+        int count = (expr.self ? 1 : 0) + expr.call.args.size();
+        for (int i = 0; i < count; i++) write(0, expr.base + i);
+        return super.visitInlineExpr(expr);
+    }
+
+    @Override
+    public Expr visitLambdaExpr(Expr.Lambda expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitAnonExpr(Expr.Anon expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitExtendAnonExpr(Expr.ExtendAnon expr) {
+        return expr;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        declare(stmt.slot, stmt.global);
+        return super.visitVarStmt(stmt);
+    }
+
+    @Override
+    public Stmt visitConstStmt(Stmt.Const stmt) {
+        declare(stmt.slot, stmt.global);
+        return super.visitConstStmt(stmt);
+    }
+
+    @Override
+    public Stmt visitFunStmt(Stmt.Fun stmt) {
+        declare(stmt.slot, stmt.global);
+        return stmt;
+    }
+
+    // what a class declares changes which methods instances find
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        calls = true;
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitExtendClassStmt(Stmt.ExtendClass stmt) {
+        calls = true;
+        return stmt;
+    }
+}
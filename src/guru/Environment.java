@@ -1,81 +1,80 @@
 package guru;
 
-import java.util.HashMap;
-import java.util.Map;
-
-import guru.Interpreter.RE;
-
 class Environment {
-    private final Environment parent;
-    public final Map<String, Object> map = new HashMap<>();
-    private final Map<String, Object> consts = new HashMap<>();
-
-    Environment() {
-        this.parent = null;
-    }
+    // mark a slot whose value lives unboxed in nums or longs respectively
+    static final Object UNBOXED = new Object(), UNBOXED_LONG = new Object();
 
-    Environment(Environment parent) {
-        this.parent = parent;
-    }
+    // a variable shared between its frame and the closures that captured it
+    static final class Cell {
+        Object value;
 
-    public void def(String name, Object val) {
-        map.put(name, val);
+        Cell(Object value) {
+            this.value = value;
+        }
     }
 
-    public void constdef(String name, Object val) {
-        consts.put(name, val);
-    }
-    public void assign(Token name, Object val) {
-        if (!map.containsKey(name.lexeme)) {
-            if (parent == null) throw new RE("Undefined variable '" + name.lexeme + "'.", name);
-            parent.assign(name, val);
-            return;
-        }
+    final Environment parent;
+    final Object[] slots;
+    double[] nums;
+    long[] longs;
 
-        map.put(name.lexeme, val);
+    Environment(Environment parent, int size) {
+        this.parent = parent;
+        this.slots = new Object[size];
     }
 
-    public boolean has(String name) {
-        return map.containsKey(name) || parent == null || parent.has(name);
-    }
-    public Object assignAt(int dist, String name, Object val) {
+    Environment ancestor(int dist) {
         Environment environment = this;
         for (int i = 0; i < dist; i++) {
             environment = environment.parent;
         }
+        return environment;
+    }
 
-        return environment.map.put(name, val);
+    public void assignAt(int dist, int slot, Object val) {
+        ancestor(dist).assign(slot, val);
     }
 
-    public Object getAt(int dist, String name) {
-        Environment environment = this;
-        for (int i = 0; i < dist; i++) {
-            environment = environment.parent;
-        }
+    // the value of a slot that may hold a cell
+    static Object value(Object slot) {
+        return slot instanceof Cell ? ((Cell) slot).value : slot;
+    }
 
-        return environment.map.get(name);
+    void assign(int slot, Object val) {
+        if (slots[slot] instanceof Cell) ((Cell) slots[slot]).value = val; else slots[slot] = val;
+    }
+
+    public Object getAt(int dist, int slot) {
+        return ancestor(dist).get(slot);
     }
-    public Object constget(Token name) {
-        if (!consts.containsKey(name.lexeme)) {
-            if (parent == null) return null;
-            return parent.constget(name);
-        }
 
-        return consts.get(name.lexeme);
+    Object get(int slot) {
+        Object val = slots[slot];
+        if (val == UNBOXED) return nums[slot];
+        if (val == UNBOXED_LONG) return longs[slot];
+        if (val instanceof Cell) return ((Cell) val).value;
+        return val;
     }
 
-    public Object eval(Token name) {
-        Object clookup = constget(name);
-        if (clookup != null) return clookup;
-        return vareval(name);
+    // a slot as a closure takes it: the cell itself if there is one
+    Object capture(int dist, int slot) {
+        Environment environment = ancestor(dist);
+        return environment.slots[slot] instanceof Cell ? environment.slots[slot] : environment.get(slot);
     }
 
-    private Object vareval(Token name) {
-        if (!map.containsKey(name.lexeme)) {
-            if (parent == null) throw new RE("Undefined variable '" + name.lexeme + "'.", name);
-            return parent.vareval(name);
+    void setNumber(int slot, double val) {
+        if (slots[slot] != UNBOXED) {
+            if (nums == null) nums = new double[slots.length];
+            slots[slot] = UNBOXED;
         }
+        nums[slot] = val;
+    }
 
-        return map.get(name.lexeme);
+    void setLong(int slot, long val) {
+        if (slots[slot] != UNBOXED_LONG) {
+            if (longs == null) longs = new long[slots.length];
+            slots[slot] = UNBOXED_LONG;
+        }
+        longs[slot] = val;
     }
 }
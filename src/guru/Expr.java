@@ -12,6 +12,7 @@ abstract class Expr {
         T visitBinaryExpr(Binary expr);
         T visitLogikaExpr(Logika expr);
         T visitCallExpr(Call expr);
+        T visitInlineExpr(Inline expr);
         T visitWhileExpr(While expr);
         T visitWithExpr(With expr);
         T visitGroupingExpr(Grouping expr);
@@ -33,6 +34,8 @@ abstract class Expr {
         final List<Token> args;
         final Expr expression;
         final Boolean isStatic;
+        int size;
+        Captures captures;
 
     @Override
     <R> R accept(Visitor<R> visitor) {
@@ -59,6 +62,8 @@ abstract class Expr {
 
         final Expr.Anon def;
         final Token father;
+        int depth = -1;
+        int slot;
 
     @Override
     <R> R accept(Visitor<R> visitor) {
@@ -73,6 +78,7 @@ abstract class Expr {
 
         final Expr obj;
         final Token name;
+        PropertyCache cache = new PropertyCache();
 
     @Override
     <R> R accept(Visitor<R> visitor) {
@@ -89,6 +95,7 @@ abstract class Expr {
         final Expr obj;
         final Token name;
         final Expr value;
+        PropertyCache cache = new PropertyCache();
 
     @Override
     <R> R accept(Visitor<R> visitor) {
@@ -105,6 +112,7 @@ abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        BinaryNode node = BinaryNode.UNINITIALIZED;
 
     @Override
     <R> R accept(Visitor<R> visitor) {
@@ -137,11 +145,33 @@ abstract class Expr {
         final Expr callee;
         final Token paren;
         final List<Expr> args;
+        boolean tail;
+        CallCache cache = new CallCache();
 
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitCallExpr(this);
     }
+ }
+    static class Inline extends Expr {
+        Inline(Expr.Call call, Expr body, Captures target, boolean self, int base) {
+            this.call = call;
+            this.body = body;
+            this.target = target;
+            this.self = self;
+            this.base = base;
+        }
+
+        final Expr.Call call;
+        final Expr body;
+        final Captures target;
+        final boolean self;
+        final int base;
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitInlineExpr(this);
+    }
  }
     static class While extends Expr {
         While(Expr cond, Expr body) {
@@ -165,6 +195,8 @@ abstract class Expr {
 
         final List<Stmt.Var> stmts;
         final Expr body;
+        int size;
+        boolean flat;
 
     @Override
     <R> R accept(Visitor<R> visitor) {
@@ -205,6 +237,9 @@ abstract class Expr {
         }
 
         final List<Stmt> stmts;
+        int size;
+        int result = -1;
+        boolean flat;
 
     @Override
     <R> R accept(Visitor<R> visitor) {
@@ -219,6 +254,8 @@ abstract class Expr {
 
         final Token name;
         final Expr value;
+        int depth = -1;
+        int slot;
 
     @Override
     <R> R accept(Visitor<R> visitor) {
@@ -269,6 +306,9 @@ abstract class Expr {
         }
 
         final Token name;
+        int depth = -1;
+        int slot;
+        Object constant;
 
     @Override
     <R> R accept(Visitor<R> visitor) {
@@ -0,0 +1,124 @@
+package guru;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Folds operators over literals into literals, picks the branch of an if whose condition
+ * is known, drops loops that never run and groupings, and throws away expressions whose
+ * value is not used and that have no effect. Folding goes through the interpreter's own
+ * operators, and leaves alone whatever would fail, so that it fails at run time as before.
+ */
+class Folder extends Rewriter {
+
+    @Override
+    List<Stmt> program(List<Stmt> stmts) {
+        return effects(statements(stmts), -1);
+    }
+
+    // the statements without those that only compute an unused value, keeping the one at keep
+    private static List<Stmt> effects(List<Stmt> stmts, int keep) {
+        List<Stmt> out = null;
+        for (int i = 0; i < stmts.size(); i++) {
+            Stmt stmt = stmts.get(i);
+            boolean dead = i != keep && stmt instanceof Stmt.Statement && pure(((Stmt.Statement) stmt).expression);
+            if (dead && out == null) out = new ArrayList<>(stmts.subList(0, i));
+            if (out != null && !dead) out.add(stmt);
+        }
+        return out == null ? stmts : out;
+    }
+
+    // evaluating it can neither fail nor change anything
+    static boolean pure(Expr expr) {
+        if (expr instanceof Expr.Literal || expr instanceof Expr.Lambda) return true;
+        if (expr instanceof Expr.Grouping) return pure(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable var = (Expr.Variable) expr;
+            return var.depth != -1 || var.constant != null;
+        }
+        return false;
+    }
+
+    private static Object value(Expr expr) {
+        return ((Expr.Literal) expr).value;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return rewrite(expr.expression);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr e = super.visitUnaryExpr(expr);
+        if (!(e instanceof Expr.Unary) || !(((Expr.Unary) e).right instanceof Expr.Literal)) return e;
+        Object right = value(((Expr.Unary) e).right);
+        switch (expr.operator.type) {
+            case BANG:
+                return new Expr.Literal(!Interpreter.isTruthy(right));
+            case MINUS:
+                return Numbers.isNumber(right) ? new Expr.Literal(Numbers.negate(right)) : e;
+            default:
+                return e;
+        }
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr e = super.visitBinaryExpr(expr);
+        if (!(e instanceof Expr.Binary)) return e;
+        Expr.Binary b = (Expr.Binary) e;
+        if (!(b.left instanceof Expr.Literal) || !(b.right instanceof Expr.Literal)) return e;
+        try {
+            return new Expr.Literal(Interpreter.binary(b.operator, value(b.left), value(b.right)));
+        } catch (Interpreter.RE error) {
+            return e;
+        }
+    }
+
+    @Override
+    public Expr visitLogikaExpr(Expr.Logika expr) {
+        Expr e = super.visitLogikaExpr(expr);
+        if (!(e instanceof Expr.Logika) || !(((Expr.Logika) e).left instanceof Expr.Literal)) return e;
+        Expr.Logika l = (Expr.Logika) e;
+        boolean truthy = Interpreter.isTruthy(value(l.left));
+        return truthy == (l.operator.type == TokenType.OR) ? l.left : l.right;
+    }
+
+    @Override
+    public Expr visitIfExpr(Expr.If expr) {
+        Expr e = super.visitIfExpr(expr);
+        if (!(e instanceof Expr.If) || !(((Expr.If) e).cond instanceof Expr.Literal)) return e;
+        Expr.If branch = (Expr.If) e;
+        if (Interpreter.isTruthy(value(branch.cond))) return branch.iftrue;
+        return branch.iffalse == null ? new Expr.Literal(null) : branch.iffalse;
+    }
+
+    @Override
+    public Expr visitWhileExpr(Expr.While expr) {
+        Expr e = super.visitWhileExpr(expr);
+        if (e instanceof Expr.While && ((Expr.While) e).cond instanceof Expr.Literal && !Interpreter.isTruthy(value(((Expr.While) e).cond))) {
+            return new Expr.Literal(null);
+        }
+        return e;
+    }
+
+    @Override
+    public Expr visitCommaExpressionsExpr(Expr.CommaExpressions expr) {
+        Expr e = super.visitCommaExpressionsExpr(expr);
+        if (!(e instanceof Expr.CommaExpressions)) return e;
+        List<Expr> exprs = ((Expr.CommaExpressions) e).expressionList;
+        List<Expr> kept = new ArrayList<>();
+        for (int i = 0; i < exprs.size(); i++) {
+            if (i == exprs.size() - 1 || !pure(exprs.get(i))) kept.add(exprs.get(i));
+        }
+        if (kept.size() == 1) return kept.get(0);
+        return kept.size() == exprs.size() ? e : new Expr.CommaExpressions(kept);
+    }
+
+    @Override
+    public Expr visitBlockExpr(Expr.Block expr) {
+        Expr.Block block = (Expr.Block) super.visitBlockExpr(expr);
+        return block(block, effects(block.stmts, block.result));
+    }
+}
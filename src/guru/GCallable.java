@@ -4,6 +4,34 @@ import java.util.List;
 
 interface GCallable {
     boolean isStatic();
-    Object call(Interpreter i, List<Object> args);
     int arity();
+
+    // a method takes its receiver as the first argument; the array is the callee's from then on
+    Object callN(Interpreter i, Object[] args);
+
+    // fixed-arity entry points, for callers that need not build an array
+    default Object call0(Interpreter i) {
+        return callN(i, new Object[0]);
+    }
+    default Object call1(Interpreter i, Object a) {
+        return callN(i, new Object[] {a});
+    }
+    default Object call2(Interpreter i, Object a, Object b) {
+        return callN(i, new Object[] {a, b});
+    }
+
+    // like callN, but may leave an Interpreter.TailCall for the caller to complete
+    default Object enterN(Interpreter i, Object[] args) {
+        return callN(i, args);
+    }
+
+    // what the resolver found for the declaration this was made from, which inlined calls check for
+    default Captures captures() {
+        return null;
+    }
+
+    // the list-based convention, kept for callers that still build lists
+    default Object call(Interpreter i, List<Object> args) {
+        return callN(i, args.toArray());
+    }
 }
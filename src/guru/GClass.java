@@ -1,7 +1,6 @@
 package guru;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 
@@ -10,6 +9,11 @@ class GClass extends GInstance implements GCallable {
     public static final GClass klass = voidclass;
     public Map<String, Object> methods = new HashMap<>();
     final String name;
+    // methods not found in this class are looked up here
+    GClass superclass;
+    // the last change to this class's methods or superclass, from a count shared by all classes
+    private static int stamps = 0;
+    private int stamp = 0;
 
     public GClass(String name) {
         this.name = name;
@@ -24,23 +28,61 @@ class GClass extends GInstance implements GCallable {
     }
 
     @Override
-    public Object call(Interpreter i, List<Object> args) {
-        GInstance inst = new GInstance(this);
-        methods.forEach(inst.fields::put);
-
-        Object constructor = methods.get("new");
-        if (constructor != null) {
-            args.add(0, inst);
-            ((GCallable) constructor).call(i, args);
-        }
+    public Object callN(Interpreter i, Object[] args) {
+        GInstance inst = instance();
+        Object constructor = method("new");
+        if (constructor != null) ((GCallable) constructor).callN(i, Interpreter.prepend(inst, args));
+        return inst;
+    }
 
+    @Override
+    public Object call0(Interpreter i) {
+        GInstance inst = instance();
+        Object constructor = method("new");
+        if (constructor != null) ((GCallable) constructor).call1(i, inst);
         return inst;
     }
 
+    @Override
+    public Object call1(Interpreter i, Object a) {
+        GInstance inst = instance();
+        Object constructor = method("new");
+        if (constructor != null) ((GCallable) constructor).call2(i, inst, a);
+        return inst;
+    }
+
+    GInstance instance() {
+        return new GInstance(this);
+    }
+
+    void define(String name, Object method) {
+        methods.put(name, method);
+        stamp = ++stamps;
+    }
+
+    void inherit(GClass sup) {
+        superclass = sup;
+        stamp = ++stamps;
+    }
+
+    // the newest stamp up the superclass chain: any change to what the class finds makes a new one
+    int version() {
+        int version = 0;
+        for (GClass cl = this; cl != null; cl = cl.superclass) version = Math.max(version, cl.stamp);
+        return version;
+    }
+
+    Object method(String name) {
+        for (GClass cl = this; cl != null; cl = cl.superclass) {
+            Object method = cl.methods.get(name);
+            if (method != null) return method;
+        }
+        return null;
+    }
 
     @Override
     public int arity() {
-        Object constructor = methods.get("new");
+        Object constructor = method("new");
         return constructor == null ? -1 : ((GCallable) constructor).arity()-1;
     }
 
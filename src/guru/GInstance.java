@@ -1,32 +1,84 @@
 package guru;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 import javax.swing.ViewportLayout;
 
 public class GInstance {
-    public final Map<String,Object> fields = new HashMap<>();
+    private static final Object[] EMPTY = {};
+    private static final double[] NONE = {};
+
+    Shape shape = Shape.ROOT;
+    // a number slot may hold null here, until its double is first boxed
+    Object[] values = EMPTY;
+    double[] doubles = NONE;
     public final GClass klass;
     public static final GClass voidclass = new GClass("void");
 
     public GInstance(GClass klass) {
         this.klass = klass;
-        fields.put("__CLASS__", klass);
     }
     public GInstance() {
         this.klass = voidclass;
-        fields.put("__CLASS__", this.klass);
+    }
+
+    // a field, or failing that a method of the class
+    Object lookup(String name) {
+        int slot = shape.slot(name);
+        if (slot >= 0) return read(slot);
+        return name.equals("__CLASS__") ? klass : klass.method(name);
+    }
+
+    Object read(int slot) {
+        Object value = values[slot];
+        if (value == null && shape.doubles[slot]) value = values[slot] = doubles[slot];
+        return value;
+    }
+
+    void write(int slot, Object value) {
+        if (shape.doubles[slot]) {
+            if (value instanceof Double) {
+                doubles[slot] = (Double) value;
+            } else if (value instanceof Long) {
+                doubles[slot] = (Long) value;
+            } else {
+                shape = shape.boxed(slot);
+            }
+        }
+        values[slot] = value;
+    }
+
+    // the slot holds numbers
+    void write(int slot, double value) {
+        doubles[slot] = value;
+        values[slot] = null;
+    }
+
+    void put(String name, Object value) {
+        int slot = shape.slot(name);
+        if (slot < 0) {
+            extend(shape.with(name, value));
+            slot = shape.size() - 1;
+        }
+        write(slot, value);
+    }
+
+    // moves to a shape with one more field
+    void extend(Shape next) {
+        shape = next;
+        int size = next.size();
+        if (size > values.length) values = Arrays.copyOf(values, Math.max(4, values.length * 2));
+        if (next.doubles[size - 1] && doubles.length < size) doubles = Arrays.copyOf(doubles, values.length);
     }
 
     public Object get(Token name) {
-        Object obj = fields.get(name.lexeme);
+        Object obj = lookup(name.lexeme);
         return obj == null ? Parser.Void.VOID : obj;
     }
 
     public void assign(Token name, Object value) {
         if (klass == voidclass) throw new Interpreter.RE("no assigning to native things", name);
-        fields.put(name.lexeme, value);
+        put(name.lexeme, value);
     }
 
     @Override
@@ -0,0 +1,87 @@
+package guru;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The global variables of the tree-walking engines, kept in slots the resolver hands
+ * out by name. A const that the resolver sees set to a literal is known at link time:
+ * reads resolved after it carry the value itself. Declaring the const again unlinks
+ * them, and invalidates the compiled code that inlined it, so a REPL redefinition
+ * still reaches every earlier use.
+ */
+final class Globals {
+    private static final Object UNDEFINED = new Object();
+
+    private final Map<String, Integer> names = new HashMap<>();
+    private Object[] values = new Object[0];
+    private Object[] consts = new Object[0];
+    private Object[] known = new Object[0];
+    // the variables and compiled functions that inlined each known const
+    private final List<List<Object>> users = new ArrayList<>();
+
+    int slot(String name) {
+        Integer slot = names.get(name);
+        if (slot != null) return slot;
+        slot = names.size();
+        names.put(name, slot);
+        users.add(null);
+        if (slot == values.length) {
+            values = Arrays.copyOf(values, slot * 2 + 8);
+            consts = Arrays.copyOf(consts, values.length);
+            known = Arrays.copyOf(known, values.length);
+            Arrays.fill(values, slot, values.length, UNDEFINED);
+        }
+        return slot;
+    }
+
+    Object get(int slot, Token name) {
+        Object val = consts[slot];
+        if (val != null) return val;
+        val = values[slot];
+        if (val == UNDEFINED) throw new Interpreter.RE("Undefined variable '" + name.lexeme + "'.", name);
+        return val;
+    }
+
+    void assign(int slot, Token name, Object val) {
+        if (values[slot] == UNDEFINED) throw new Interpreter.RE("Undefined variable '" + name.lexeme + "'.", name);
+        values[slot] = val;
+    }
+
+    void define(int slot, Object val) {
+        values[slot] = val;
+    }
+
+    void defineConst(int slot, Object val) {
+        consts[slot] = val;
+    }
+
+    // a const declared at resolve time, with its literal value or null
+    void link(int slot, Object value) {
+        if (known[slot] != null && known[slot].equals(value)) return;
+        List<Object> inlined = users.get(slot);
+        if (inlined != null) {
+            for (Object user : inlined) {
+                if (user instanceof Expr.Variable) ((Expr.Variable) user).constant = null;
+                else ((Jit.Compiled) user).valid = false;
+            }
+            users.set(slot, null);
+        }
+        known[slot] = value;
+    }
+
+    // the value for a read of the slot to carry, if it is known
+    Object inline(int slot, Object user) {
+        if (known[slot] == null) return null;
+        depend(slot, user);
+        return known[slot];
+    }
+
+    void depend(int slot, Object user) {
+        if (users.get(slot) == null) users.set(slot, new ArrayList<>());
+        users.get(slot).add(user);
+    }
+}
@@ -7,29 +7,77 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Map;
 
 public class Guru {
     static boolean inError;
     static Interpreter i = new Interpreter();
+    static VM vm;
+    static ClosureCompiler closures;
+    // a tree-walked guru call takes several Java frames, too many for the default stack to recurse deeply
+    private static final long STACK = 1L << 28;
 
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("usage: guruj [script]");
+        if (args.length > 0 && args[0].equals("compile")) {
+            compile(args);
+            return;
+        }
+        int argc = 0;
+        boolean badFlag = false;
+        for (String arg : args) {
+            if (arg.equals("--engine=vm")) {
+                vm = new VM();
+                closures = null;
+            } else if (arg.equals("--engine=closure")) {
+                vm = null;
+                closures = new ClosureCompiler(i);
+            } else if (arg.equals("--engine=ast")) {
+                vm = null;
+                closures = null;
+            } else if (arg.equals("--no-optimize")) {
+                Optimizer.enabled = false;
+            } else if (arg.startsWith("--")) {
+                badFlag = true;
+            } else {
+                args[argc++] = arg;
+            }
+        }
+        if (argc > 1 || badFlag) {
+            System.out.println("usage: guruj [--engine=ast|closure|vm] [--no-optimize] [script]");
             System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        } else if (argc == 1) {
+            runDeep(args[0]);
         } else {
             System.out.println("repl starting");
             repl();
         }
     }
+    private static void runDeep(String file) throws IOException {
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                runFile(file);
+            } catch (IOException | RuntimeException | Error e) {
+                failure[0] = e;
+            }
+        }, "main", STACK);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure[0] instanceof IOException) throw (IOException) failure[0];
+        if (failure[0] instanceof RuntimeException) throw (RuntimeException) failure[0];
+        if (failure[0] instanceof Error) throw (Error) failure[0];
+    }
     private static void runFile(String file) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(file));
         Scanner scanner = new Scanner(new String(bytes, Charset.defaultCharset()));
         List<Token> tokens = scanner.scanTokens();
 
-        Resolver resolver = new Resolver(i);
+        Resolver resolver = new Resolver(i.globals);
         List<Stmt> stmts = new Parser(tokens).parse();
 
         stmts.forEach(new Object() {
@@ -38,20 +86,45 @@ public class Guru {
             }
         }::run);
         if (inError) System.exit(64);
+        stmts = Optimizer.optimize(stmts, vm == null);
         try {
-            stmts.forEach(new Object() {
+            if (vm != null) {
+                Proto script = new Compiler(vm).compile(stmts);
+                if (inError) System.exit(64);
+                vm.interpret(script);
+            } else if (closures != null) {
+                closures.run(stmts);
+            } else stmts.forEach(new Object() {
                 public void run(Stmt stmt) {
                     stmt.accept(Guru.i);
                 }
             }::run);
         } catch (Interpreter.RE e) {
-            System.out.println("RUNTIME ERROR: " + e.getMessage());
-            System.out.println("    TOKEN: [" + e.token.lexeme + "]");
-            System.out.println("    LINE: [" + e.token.line + "]");
-            inError = true;
+            runtimeError(e);
         };
         if (inError) System.exit(64);
     }
+    private static void compile(String[] args) throws IOException {
+        if (args.length != 4 || !args[2].equals("-o")) {
+            System.out.println("usage: guruj compile [script] -o [jar]");
+            System.exit(64);
+        }
+        byte[] bytes = Files.readAllBytes(Paths.get(args[1]));
+        List<Token> tokens = new Scanner(new String(bytes, Charset.defaultCharset())).scanTokens();
+        List<Stmt> stmts = new Parser(tokens).parse();
+        Resolver resolver = new Resolver();
+        for (Stmt stmt : stmts) {
+            if (stmt != null) stmt.accept(resolver);
+        }
+        if (inError) System.exit(64);
+        stmts = Optimizer.optimize(stmts, false);
+        VM target = new VM();
+        Proto script = new Compiler(target).compile(stmts);
+        if (inError) System.exit(64);
+        Map<String, byte[]> classes = Translator.translate(script, target);
+        if (inError) System.exit(64);
+        Image.jar(classes, args[3]);
+    }
     private static void repl() throws IOException {
         InputStreamReader isr = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(isr);
@@ -60,8 +133,12 @@ public class Guru {
             System.out.print("> ");
             String line = reader.readLine();
             if (line == null) break;
-            Object val = run(line);
-            if (val != null) System.out.println(val);
+            try {
+                Object val = run(line);
+                if (val != null) System.out.println(Numbers.stringify(val));
+            } catch (Interpreter.RE e) {
+                runtimeError(e);
+            }
             inError = false;
         }
     }
@@ -69,7 +146,23 @@ public class Guru {
         Scanner scanner = new Scanner(source);
         List<Token> tokens = scanner.scanTokens();
         Parser parser = new Parser(tokens);
-        parser.parse().forEach(new Object() {
+        List<Stmt> stmts = parser.parse();
+        Resolver resolver = new Resolver(i.globals);
+        for (Stmt stmt : stmts) {
+            if (stmt != null) stmt.accept(resolver);
+        }
+        if (inError) return null;
+        stmts = Optimizer.optimize(stmts, vm == null);
+        if (vm != null) {
+            Proto script = new Compiler(vm).compile(stmts);
+            if (!inError) vm.interpret(script);
+            return null;
+        }
+        if (closures != null) {
+            closures.run(stmts);
+            return null;
+        }
+        stmts.forEach(new Object() {
             public void run(Stmt stmt) {
                 if (stmt == null) return;
                 stmt.accept(Guru.i);
@@ -82,6 +175,13 @@ public class Guru {
 
     
 
+    static void runtimeError(Interpreter.RE e) {
+        System.out.println("RUNTIME ERROR: " + e.getMessage());
+        System.out.println("    TOKEN: [" + e.token.lexeme + "]");
+        System.out.println("    LINE: [" + e.token.line + "]");
+        inError = true;
+    }
+
     static void error(int n, String msg) {
         report(n, "", msg);
     }
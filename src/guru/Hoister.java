@@ -0,0 +1,104 @@
+package guru;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Moves what a loop computes the same way every time out of it. An expression that reads
+ * only what the loop leaves alone, and costs more than a variable does, is computed the
+ * first time the loop needs it and kept in a slot cleared as the loop is entered:
+ * `t or (t = e)`. Computing it where it was written keeps a failure, or a branch that
+ * never runs, as it was; a value that is nothing or false is simply computed again.
+ * A loop outside any function gets a block around it to hold the slots.
+ */
+class Hoister extends Rewriter {
+    private static final Token OR = new Token(TokenType.OR, "or", null, 0);
+
+    @Override
+    public Expr visitWhileExpr(Expr.While expr) {
+        boolean top = frames.isEmpty();
+        if (top) frames.add(new Frame(0));
+        Frame frame = frames.get(frames.size() - 1);
+        Invariants invariants = new Invariants(frame, Effects.of(frame, expr));
+        Expr loop = super.visitWhileExpr((Expr.While) invariants.rewrite(expr));
+        if (!invariants.slots.isEmpty()) {
+            List<Expr> exprs = new ArrayList<>();
+            for (int slot : invariants.slots.values()) exprs.add(store(0, slot, new Expr.Literal(null)));
+            exprs.add(loop);
+            loop = new Expr.CommaExpressions(exprs);
+        }
+        if (!top) return loop;
+        frames.remove(frames.size() - 1);
+        if (frame.size == 0) return loop;
+        Expr.Block block = new Expr.Block(List.of(new Stmt.Statement(loop)));
+        block.size = frame.size;
+        block.result = 0;
+        return block;
+    }
+
+    // the loop with what it leaves alone read from slots, one for each expression
+    private static final class Invariants extends Rewriter {
+        private final Frame frame;
+        private final Effects effects;
+        final Map<Object, Integer> slots = new LinkedHashMap<>();
+        // whether the expression about to be rewritten is an operand taken for its number
+        private boolean operand;
+
+        Invariants(Frame frame, Effects effects) {
+            this.frame = frame;
+            this.effects = effects;
+            frames.add(frame);
+        }
+
+        @Override
+        Expr rewrite(Expr expr) {
+            int level = frames.size() - 1;
+            boolean operand = this.operand;
+            Object key = expr == null ? null : Effects.key(expr, level, operand);
+            if (key == null || Effects.weight(expr) < 2 || !effects.keeps(expr, level)) {
+                this.operand = Effects.numbers(expr, operand);
+                Expr out = super.rewrite(expr);
+                this.operand = operand;
+                return out;
+            }
+            Integer slot = slots.get(key);
+            if (slot == null) {
+                slot = frame.size++;
+                slots.put(key, slot);
+            }
+            return new Expr.Logika(local(level, slot), OR, store(level, slot, expr));
+        }
+
+        @Override
+        public Expr visitLambdaExpr(Expr.Lambda expr) {
+            return expr;
+        }
+
+        @Override
+        public Expr visitAnonExpr(Expr.Anon expr) {
+            return expr;
+        }
+
+        @Override
+        public Expr visitExtendAnonExpr(Expr.ExtendAnon expr) {
+            return expr;
+        }
+
+        @Override
+        public Stmt visitFunStmt(Stmt.Fun stmt) {
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitClassStmt(Stmt.Class stmt) {
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitExtendClassStmt(Stmt.ExtendClass stmt) {
+            return stmt;
+        }
+    }
+}
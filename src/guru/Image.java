@@ -0,0 +1,114 @@
+package guru;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+/*
+ * A compiled script as a program of its own: a jar holding the JVM classes Translator
+ * makes of the script and its functions, and the runtime classes those call. It starts
+ * with no scanning, parsing or resolving, and runs with no interpreter loop.
+ */
+class Image {
+    // the classes compiled code can reach, besides Interpreter's anonymous natives and bound methods
+    private static final List<String> RUNTIME = Arrays.asList(
+        "Image", "Routine", "Interpreter", "Interpreter$Curried", "Interpreter$RE", "Interpreter$TailCall",
+        "Interpreter$Unexpected", "GCallable", "GClass", "GInstance", "Shape", "PropertyCache", "Numbers",
+        "Token", "TokenType", "Parser$Void", "Upvalue", "Expr$Visitor", "Stmt$Visitor");
+
+    // compiled calls nest on the thread's stack, where the VM's frames live on the heap
+    private static final long STACK = 1L << 30;
+
+    private static int status = 0;
+
+    public static void main(String[] args) throws InterruptedException {
+        Thread thread = new Thread(null, Image::run, "main", STACK);
+        thread.start();
+        thread.join();
+        if (status != 0) System.exit(status);
+    }
+
+    private static void run() {
+        try {
+            Class.forName(Translator.PREFIX.replace('/', '.') + 0).getMethod("main").invoke(null);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof StackOverflowError) cause = new Interpreter.RE("Stack overflow.", new Token(TokenType.RIGHT_PAREN, ")", null, 0));
+            if (!(cause instanceof Interpreter.RE)) {
+                cause.printStackTrace();
+                status = 1;
+                return;
+            }
+            // as Guru.runtimeError reports it, without loading the front end for it
+            Interpreter.RE err = (Interpreter.RE) cause;
+            System.out.println("RUNTIME ERROR: " + err.getMessage());
+            System.out.println("    TOKEN: [" + err.token.lexeme + "]");
+            System.out.println("    LINE: [" + err.token.line + "]");
+            status = 64;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("no compiled script in the image", e);
+        }
+    }
+
+    static void jar(Map<String, byte[]> compiled, String out) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "guru.Image");
+        try (JarOutputStream jar = new JarOutputStream(Files.newOutputStream(Paths.get(out)), manifest)) {
+            for (Map.Entry<String, byte[]> cls : compiled.entrySet()) {
+                jar.putNextEntry(new JarEntry(cls.getKey() + ".class"));
+                jar.write(cls.getValue());
+                jar.closeEntry();
+            }
+            Path classes;
+            try {
+                classes = Paths.get(Image.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+            if (Files.isDirectory(classes)) {
+                try (Stream<Path> files = Files.list(classes.resolve("guru"))) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        String name = "guru/" + file.getFileName();
+                        if (!runtime(name)) continue;
+                        jar.putNextEntry(new JarEntry(name));
+                        Files.copy(file, jar);
+                        jar.closeEntry();
+                    }
+                }
+            } else {
+                try (JarFile from = new JarFile(classes.toFile())) {
+                    for (Enumeration<JarEntry> e = from.entries(); e.hasMoreElements();) {
+                        JarEntry entry = e.nextElement();
+                        if (!runtime(entry.getName())) continue;
+                        jar.putNextEntry(new JarEntry(entry.getName()));
+                        try (InputStream in = from.getInputStream(entry)) {
+                            in.transferTo(jar);
+                        }
+                        jar.closeEntry();
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean runtime(String entry) {
+        if (!entry.startsWith("guru/") || !entry.endsWith(".class")) return false;
+        String name = entry.substring(5, entry.length() - 6);
+        return RUNTIME.contains(name) || name.matches("Interpreter\\$\\d+");
+    }
+}
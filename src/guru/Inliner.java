@@ -0,0 +1,165 @@
+package guru;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Puts the bodies of small functions in place of the calls to them. The candidates are the
+ * functions declared at the top of the script, and the methods of its classes that no other
+ * method shares a name with, that capture nothing, declare nothing, do not call themselves
+ * and are at most LIMIT nodes. A call becomes an Inline, which checks at run time that the
+ * callee is still the function declared, so a reassigned or redefined one is simply called.
+ * The arguments go to slots added to the frame of the call; a call in no frame stays as is.
+ */
+class Inliner extends Rewriter {
+    private static final int LIMIT = 24;
+
+    // by global slot and by method name; null where the name has more than one declaration
+    private final Map<Integer, Stmt.Fun> functions = new HashMap<>();
+    private final Map<String, Stmt.Fun> methods = new HashMap<>();
+
+    @Override
+    List<Stmt> program(List<Stmt> stmts) {
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof Stmt.Fun && ((Stmt.Fun) stmt).slot == -1) {
+                Stmt.Fun f = (Stmt.Fun) stmt;
+                declare(functions, f.global, small(f, f.global) ? f : null);
+            } else if (stmt instanceof Stmt.Var && ((Stmt.Var) stmt).slot == -1) {
+                declare(functions, ((Stmt.Var) stmt).global, null);
+            } else if (stmt instanceof Stmt.Const && ((Stmt.Const) stmt).slot == -1) {
+                declare(functions, ((Stmt.Const) stmt).global, null);
+            } else if (stmt instanceof Stmt.Class || stmt instanceof Stmt.ExtendClass) {
+                Stmt.Class c = stmt instanceof Stmt.Class ? (Stmt.Class) stmt : ((Stmt.ExtendClass) stmt).def;
+                if (c.slot == -1) declare(functions, c.global, null);
+                for (Stmt.Fun f : c.methods) {
+                    declare(methods, f.name.lexeme, small(f, -1) && !f.name.lexeme.equals("new") ? f : null);
+                }
+            }
+        }
+        return statements(stmts);
+    }
+
+    private static <K> void declare(Map<K, Stmt.Fun> declared, K name, Stmt.Fun f) {
+        declared.put(name, declared.containsKey(name) ? null : f);
+    }
+
+    private static boolean small(Stmt.Fun f, int global) {
+        return !f.isStatic && f.captures.names.isEmpty() && cost(f.expression, f, global) <= LIMIT;
+    }
+
+    // the nodes in a body, or more than LIMIT if it has anything that keeps it from being inlined
+    private static int cost(Expr expr, Stmt.Fun f, int global) {
+        if (expr == null || expr instanceof Expr.Literal) return 1;
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable var = (Expr.Variable) expr;
+            return var.depth == -1 && var.slot == global ? LIMIT + 1 : 1;
+        }
+        if (expr instanceof Expr.Grouping) return 1 + cost(((Expr.Grouping) expr).expression, f, global);
+        if (expr instanceof Expr.Unary) return 1 + cost(((Expr.Unary) expr).right, f, global);
+        if (expr instanceof Expr.Assignment) return 1 + cost(((Expr.Assignment) expr).value, f, global);
+        if (expr instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr;
+            return get.name.lexeme.equals(f.name.lexeme) ? LIMIT + 1 : 1 + cost(get.obj, f, global);
+        }
+        if (expr instanceof Expr.Set) {
+            Expr.Set set = (Expr.Set) expr;
+            return 1 + cost(set.obj, f, global) + cost(set.value, f, global);
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary b = (Expr.Binary) expr;
+            return 1 + cost(b.left, f, global) + cost(b.right, f, global);
+        }
+        if (expr instanceof Expr.Logika) {
+            Expr.Logika l = (Expr.Logika) expr;
+            return 1 + cost(l.left, f, global) + cost(l.right, f, global);
+        }
+        if (expr instanceof Expr.If) {
+            Expr.If branch = (Expr.If) expr;
+            return 1 + cost(branch.cond, f, global) + cost(branch.iftrue, f, global) + cost(branch.iffalse, f, global);
+        }
+        if (expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call) expr;
+            return 1 + cost(call.callee, f, global) + cost(call.args, f, global);
+        }
+        if (expr instanceof Expr.CommaExpressions) return 1 + cost(((Expr.CommaExpressions) expr).expressionList, f, global);
+        if (expr instanceof Expr.Block) {
+            int cost = 1;
+            for (Stmt stmt : ((Expr.Block) expr).stmts) {
+                if (!(stmt instanceof Stmt.Statement)) return LIMIT + 1;
+                cost += cost(((Stmt.Statement) stmt).expression, f, global);
+            }
+            return cost;
+        }
+        return LIMIT + 1;
+    }
+
+    private static int cost(List<Expr> exprs, Stmt.Fun f, int global) {
+        int cost = 0;
+        for (Expr expr : exprs) cost += cost(expr, f, global);
+        return cost;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr.Call call = call(expr);
+        if (frames.isEmpty()) return call;
+        Stmt.Fun f = null;
+        boolean self = false;
+        if (call.callee instanceof Expr.Variable) {
+            Expr.Variable var = (Expr.Variable) call.callee;
+            if (var.depth == -1) f = functions.get(var.slot);
+            if (f != null && f.args.size() != call.args.size()) f = null;
+        } else if (call.callee instanceof Expr.Get) {
+            f = methods.get(((Expr.Get) call.callee).name.lexeme);
+            // a method takes the object first, unless it takes nothing at all
+            self = f != null && f.args.size() == call.args.size() + 1;
+            if (f != null && !self && !(f.args.isEmpty() && call.args.isEmpty())) f = null;
+        }
+        if (f == null) return call;
+        Frame frame = frames.get(frames.size() - 1);
+        int base = frame.size;
+        frame.size += f.args.size();
+        return new Expr.Inline(call, new Rebase(base, call.tail).rewrite(f.expression), f.captures, self, base);
+    }
+
+    // an inlined body as the caller runs it: its parameters in the slots from base on, and
+    // its calls no longer in tail position unless the call it replaces was
+    private static final class Rebase extends Rewriter {
+        private final int base;
+        private final boolean tail;
+
+        Rebase(int base, boolean tail) {
+            this.base = base;
+            this.tail = tail;
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr) {
+            if (expr.depth != 0) return expr;
+            Expr.Variable var = new Expr.Variable(expr.name);
+            var.depth = 0;
+            var.slot = base + expr.slot;
+            return var;
+        }
+
+        @Override
+        public Expr visitAssignmentExpr(Expr.Assignment expr) {
+            Expr value = rewrite(expr.value);
+            if (expr.depth != 0) {
+                return value == expr.value ? expr : super.visitAssignmentExpr(expr);
+            }
+            Expr.Assignment assignment = new Expr.Assignment(expr.name, value);
+            assignment.depth = 0;
+            assignment.slot = base + expr.slot;
+            return assignment;
+        }
+
+        @Override
+        public Expr visitCallExpr(Expr.Call expr) {
+            Expr.Call call = call(expr);
+            if (!call.tail || tail) return call;
+            return new Expr.Call(call.callee, call.paren, call.args);
+        }
+    }
+}
@@ -3,9 +3,8 @@ package guru;
 import static guru.TokenType.*;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import guru.Expr.Anon;
 import guru.Expr.Assignment;
@@ -31,24 +30,28 @@ import guru.Stmt.Var;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
-    private Environment globals = new Environment();
-    private Environment env = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    final Globals globals = new Globals();
+    private Environment env = null;
+    private Jit.Profile profile = null;
 
     public Interpreter() {
+        globals.define(globals.slot("runtime"), natives());
+    }
+
+    static GInstance natives() {
         GInstance clocks = new GInstance();
-        clocks.fields.put("measure", new GCallable() {
+        clocks.put("measure", new GCallable() {
             public static final String name = "measure"; 
             @Override
             public String toString() { return "function [native] " + name; }
             @Override
             public int arity() { return -1; }
             @Override
-            public Object call(Interpreter i, List<Object> args) {
+            public Object callN(Interpreter i, Object[] args) {
                 double start = System.currentTimeMillis() / 1000.0;
-                GCallable f = (GCallable) args.get(0);
-                if (args.size()-1 > f.arity()) return null;
-                f.call(i, args.subList(1, args.size()));
+                GCallable f = (GCallable) args[0];
+                if (args.length-1 > f.arity()) return null;
+                f.callN(i, Arrays.copyOfRange(args, 1, args.length));
                 return (Double) (System.currentTimeMillis() / 1000.0) - start;
             }
             @Override
@@ -56,15 +59,19 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 return true;
             }
         });
-        clocks.fields.put("start", (Double) (System.currentTimeMillis() / 1000.0));
-        clocks.fields.put("now", new GCallable() {
+        clocks.put("start", (Double) (System.currentTimeMillis() / 1000.0));
+        clocks.put("now", new GCallable() {
             public static final String name = "elapsed"; 
             @Override
             public String toString() { return "function [native] " + name; }
             @Override
             public int arity() { return 0; }
             @Override
-            public Object call(Interpreter i, List<Object> args) {
+            public Object callN(Interpreter i, Object[] args) {
+                return call0(i);
+            }
+            @Override
+            public Object call0(Interpreter i) {
                 return (double) System.currentTimeMillis() / 1000.0;
             }
             @Override
@@ -73,18 +80,18 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         });
         GInstance runtime = new GInstance();
-        runtime.fields.put("UnixTime", clocks);
-        runtime.fields.put("print", new GCallable() {
+        runtime.put("UnixTime", clocks);
+        runtime.put("print", new GCallable() {
             public static final String name = "print"; 
             @Override
             public String toString() { return "function [native] " + name; }
             @Override
             public int arity() { return -1; }
             @Override
-            public Object call(Interpreter i, List<Object> args) {
+            public Object callN(Interpreter i, Object[] args) {
                 StringBuilder sb = new StringBuilder();
                 for (Object obj: args) {
-                    sb.append(obj != null ? obj != Parser.Void.VOID ? obj : "void" : "nothing");
+                    sb.append(obj != null ? obj != Parser.Void.VOID ? Numbers.stringify(obj) : "void" : "nothing");
                     sb.append(" ");
                 }
                 System.out.println(sb);
@@ -95,7 +102,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 return true;
             }
         });
-        globals.def("runtime", runtime);
+        return runtime;
     }
 
     static class RE extends RuntimeException {
@@ -106,12 +113,24 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             this.token = token;
         }
 
-        public static Double chNum(Token operator, Object operand) {
-            if (operand instanceof Double) return (Double) operand;
+        public static Object chNum(Token operator, Object operand) {
+            if (Numbers.isNumber(operand)) return operand;
             throw new RE("Operand must be a number.", operator);
         }
     }
 
+    // thrown by the unboxed evaluation paths with a value of a type they did not expect
+    static class Unexpected extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final Object value;
+
+        Unexpected(Object value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
+
     public Object run(Expr expr) {
         try {
             return expr.accept(this);
@@ -127,7 +146,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return expr.value;
     }
 
-    private boolean isTruthy(Object o) {
+    static boolean isTruthy(Object o) {
         if (o == null) return false;
         if (o instanceof Boolean) return (Boolean) o;
 
@@ -140,45 +159,52 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             case BANG:
                 return !isTruthy(expr.right.accept(this));
             case MINUS:
-                return - RE.chNum(expr.operator, expr.right.accept(this));
+                return Numbers.negate(RE.chNum(expr.operator, expr.right.accept(this)));
             default:
                 return null;
         }
     }
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        Object left = expr.left.accept(this);
-        Object right = expr.right.accept(this);
-        switch (expr.operator.type) {
+        return expr.node.eval(this, expr);
+    }
+
+    static Object binary(Token operator, Object left, Object right) {
+        switch (operator.type) {
             case BANG_EQUAL:
-                return !(left == null ? right == null ? true : false : left.equals(right));
+                return !isEqual(left, right);
             case EQUAL_EQUAL:
-                return left == null ? right == null ? true : false : left.equals(right);
+                return isEqual(left, right);
             case GREATER_EQUAL:
-                return RE.chNum(expr.operator, left) >= RE.chNum(expr.operator, right);
+                return Numbers.lessEqual(RE.chNum(operator, right), RE.chNum(operator, left));
             case GREATER:
-                return RE.chNum(expr.operator, left) > RE.chNum(expr.operator, right);
+                return Numbers.less(RE.chNum(operator, right), RE.chNum(operator, left));
             case LESS_EQUAL:
-                return RE.chNum(expr.operator, left) <= RE.chNum(expr.operator, right);
+                return Numbers.lessEqual(RE.chNum(operator, left), RE.chNum(operator, right));
             case LESS:
-                return RE.chNum(expr.operator, left) < RE.chNum(expr.operator, right);
+                return Numbers.less(RE.chNum(operator, left), RE.chNum(operator, right));
             case MINUS:
-                return RE.chNum(expr.operator, left) - RE.chNum(expr.operator, right);
+                return Numbers.subtract(RE.chNum(operator, left), RE.chNum(operator, right));
             case PLUS:
-                if (left instanceof Double && right instanceof Double)
-                    return (Double) left + (Double) right;
+                if (Numbers.isNumber(left) && Numbers.isNumber(right))
+                    return Numbers.add(left, right);
                 if (left instanceof String && right instanceof String)
                     return (String) left + (String) right;
-                throw new RE("invalid types for sum operation;", expr.operator);
+                throw new RE("invalid types for sum operation;", operator);
             case SLASH:
-                return RE.chNum(expr.operator, left) / RE.chNum(expr.operator, right);
+                return Numbers.divide(RE.chNum(operator, left), RE.chNum(operator, right));
             case STAR:
-                return RE.chNum(expr.operator, left) * RE.chNum(expr.operator, right);
+                return Numbers.multiply(RE.chNum(operator, left), RE.chNum(operator, right));
             default:
                 return null;
         }
     }
 
+    static boolean isEqual(Object left, Object right) {
+        if (Numbers.isNumber(left) && Numbers.isNumber(right)) return Numbers.equal(left, right);
+        return left == null ? right == null : left.equals(right);
+    }
+
     @Override
     public Object visitCommaExpressionsExpr(Expr.CommaExpressions expr) {
         Object ret = null;
@@ -192,25 +218,130 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return expr.expression.accept(this);
     }
 
+    // evaluates expr only for its side effects, so numeric results never need a box
+    private void effect(Expr expr) {
+        if (expr instanceof Assignment) {
+            assign((Assignment) expr);
+        } else if (expr instanceof Block) {
+            block((Block) expr, false);
+        } else if (expr instanceof While) {
+            loop((While) expr, false);
+        } else if (expr instanceof If) {
+            If branch = (If) expr;
+            if (isTruthy(branch.cond.accept(this))) {
+                effect(branch.iftrue);
+            } else if (branch.iffalse != null) {
+                effect(branch.iffalse);
+            }
+        } else {
+            expr.accept(this);
+        }
+    }
+
+    // evaluates expr as a raw double, throwing Unexpected with the value if it turns out not to be a number
+    double number(Expr expr) {
+        Object val;
+        if (expr instanceof Variable) {
+            Variable var = (Variable) expr;
+            if (var.depth == -1) {
+                val = global(var);
+            } else {
+                Environment scope = env.ancestor(var.depth);
+                val = scope.slots[var.slot];
+                if (val == Environment.UNBOXED) {
+                    integral = false;
+                    return scope.nums[var.slot];
+                }
+                if (val == Environment.UNBOXED_LONG) return integral(scope.longs[var.slot]);
+                if (val instanceof Environment.Cell) val = ((Environment.Cell) val).value;
+            }
+        } else if (expr instanceof Expr.Binary) {
+            Expr.Binary b = (Expr.Binary) expr;
+            if (b.node.yields == BinaryNode.LONG) return integral(b.node.integer(this, b));
+            if (b.node.yields == BinaryNode.DOUBLE) {
+                double d = b.node.number(this, b);
+                integral = false;
+                return d;
+            }
+            val = b.node.eval(this, b);
+        } else if (expr instanceof Expr.Literal) {
+            val = ((Expr.Literal) expr).value;
+        } else {
+            val = expr.accept(this);
+        }
+        if (val instanceof Double) {
+            integral = false;
+            return (Double) val;
+        }
+        if (val instanceof Long) return integral((Long) val);
+        throw new Unexpected(val);
+    }
+
+    // set by number() when the value it read was a Long, so that two Longs can still be told apart
+    boolean integral;
+    // beyond this a Long does not survive the trip through a double
+    private static final long EXACT = 1L << 53;
+
+    private double integral(long val) {
+        if (val > EXACT || val < -EXACT) throw new Unexpected(val);
+        integral = true;
+        return val;
+    }
+
+    // the same for sites that expect Longs, for which a Double is unexpected as well
+    long integer(Expr expr) {
+        Object val;
+        if (expr instanceof Variable) {
+            Variable var = (Variable) expr;
+            if (var.depth == -1) {
+                val = global(var);
+            } else {
+                Environment scope = env.ancestor(var.depth);
+                val = scope.slots[var.slot];
+                if (val == Environment.UNBOXED_LONG) return scope.longs[var.slot];
+                if (val == Environment.UNBOXED) val = scope.nums[var.slot];
+                if (val instanceof Environment.Cell) val = ((Environment.Cell) val).value;
+            }
+        } else if (expr instanceof Expr.Binary) {
+            return ((Expr.Binary) expr).node.integer(this, (Expr.Binary) expr);
+        } else if (expr instanceof Expr.Literal) {
+            val = ((Expr.Literal) expr).value;
+        } else {
+            val = expr.accept(this);
+        }
+        if (val instanceof Long) return (Long) val;
+        throw new Unexpected(val);
+    }
+
     @Override
     public Object visitBlockExpr(Block expr) {
+        return block(expr, true);
+    }
+
+    private Object block(Block expr, boolean keep) {
+        if (expr.flat) return statements(expr, keep);
         Environment prev = this.env;
         try {
-            Object ret = null;
-            this.env = new Environment(this.env);
-            for (Stmt stmt : expr.stmts) {
-                if (stmt instanceof Stmt.Statement) {
-                    ret = ((Stmt.Statement) stmt).expression.accept(this);
-                    continue;
-                }
-                stmt.accept(this);
-            }
-            return ret;
+            this.env = new Environment(this.env, expr.size);
+            return statements(expr, keep);
         } finally {
             this.env = prev;
         }
     }
 
+    private Object statements(Block expr, boolean keep) {
+        Object ret = null;
+        List<Stmt> stmts = expr.stmts;
+        for (int i = 0; i < stmts.size(); i++) {
+            if (keep && i == expr.result) {
+                ret = ((Stmt.Statement) stmts.get(i)).expression.accept(this);
+                continue;
+            }
+            stmts.get(i).accept(this);
+        }
+        return ret;
+    }
+
     @Override
     public Object visitIfExpr(If expr) {
         if (isTruthy(expr.cond.accept(this))) {
@@ -223,112 +354,204 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitAssignmentExpr(Assignment expr) {
         Object val = expr.value.accept(this);
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            env.assignAt(distance, expr.name.lexeme, val);
+        if (expr.depth != -1) {
+            env.assignAt(expr.depth, expr.slot, val);
         } else {
-            globals.assign(expr.name, val);
+            globals.assign(expr.slot, expr.name, val);
         }
         return val;
     }
 
+    private void assign(Assignment expr) {
+        if (expr.depth == -1 || !(expr.value instanceof Expr.Binary)) {
+            visitAssignmentExpr(expr);
+            return;
+        }
+        Environment scope = env.ancestor(expr.depth);
+        if (scope.slots[expr.slot] instanceof Environment.Cell) {
+            visitAssignmentExpr(expr);
+            return;
+        }
+        store(scope, expr.slot, (Expr.Binary) expr.value);
+    }
+
+    // evaluates value into a slot of scope, leaving a numeric result unboxed
+    private void store(Environment scope, int slot, Expr.Binary value) {
+        BinaryNode node = value.node;
+        try {
+            if (node.yields == BinaryNode.LONG) {
+                scope.setLong(slot, node.integer(this, value));
+            } else if (node.yields == BinaryNode.DOUBLE) {
+                scope.setNumber(slot, node.number(this, value));
+            } else {
+                scope.slots[slot] = node.eval(this, value);
+            }
+        } catch (Unexpected result) {
+            scope.slots[slot] = result.value;
+        }
+    }
+
+    // a global read, which carries the value of a const known when it was resolved
+    private Object global(Variable var) {
+        Object val = var.constant;
+        return val != null ? val : globals.get(var.slot, var.name);
+    }
+
+    private Object lookup(int depth, int slot, Token name) {
+        return depth == -1 ? globals.get(slot, name) : env.getAt(depth, slot);
+    }
+
+    private void define(int slot, int global, Object val) {
+        if (slot == -1) globals.define(global, val); else env.slots[slot] = val;
+    }
+
+    // a local that closures share, stored before its value is made so they can capture it
+    private Environment.Cell cell(int slot) {
+        Environment.Cell cell = new Environment.Cell(null);
+        env.slots[slot] = cell;
+        return cell;
+    }
+
+    // a local initialized by arithmetic starts out unboxed; returns false if the caller must evaluate it
+    private boolean defineNumber(int slot, Expr value) {
+        if (slot == -1 || !(value instanceof Expr.Binary)) return false;
+        store(env, slot, (Expr.Binary) value);
+        return true;
+    }
+
 
 
     @Override
     public Object visitLambdaExpr(Lambda expr) {
-        Environment e = env;
-        return new GCallable() {
-
-            @Override
-            public String toString() {
-                return "function anon";
-            }
-            @Override
-            public int arity() {
-                return expr.args.size();
-            }
-            @Override
-            public Object call(Interpreter i, List<Object> args) {
-                Environment prev = i.env;
-                try {
-                    i.env = new Environment(e);
-                    int index = 0;
-                    for (Token argname : expr.args) {
-                        i.env.def(argname.lexeme, args.get(index++));
-                    }
-                    return expr.expression.accept(i);
-                } finally {
-                    i.env = prev;
-                }
-            }
-            @Override
-            public boolean isStatic() {
-                return expr.isStatic;
-            }
-        };
+        return function(null, expr.args, expr.expression, expr.size, expr.isStatic, expr.captures);
     }
 
     @Override
     public Void visitFunStmt(Fun stmt) {
-        Environment e = env;
-        env.def(stmt.name.lexeme, new GCallable() {
-            @Override
-            public String toString() {
-                return "function " + stmt.name.lexeme;
-            }
-            @Override
-            public int arity() {
-                return stmt.args.size();
-            }
-            @Override
-            public Object call(Interpreter i, List<Object> args) {
-                Environment prev = i.env;
-                try {
-                    i.env = new Environment(e);
-                    int index = 0;
-                    for (Token argname : stmt.args) {
-                        i.env.def(argname.lexeme, args.get(index++));
-                    }
-                    return stmt.expression.accept(i);
-                } finally {
-                    i.env = prev;
+        if (stmt.cell) cell(stmt.slot).value = function(stmt); else define(stmt.slot, stmt.global, function(stmt));
+        return null;
+    }
+
+    private GCallable function(Stmt.Fun stmt) {
+        return function(stmt.name.lexeme, stmt.args, stmt.expression, stmt.size, stmt.isStatic, stmt.captures);
+    }
+
+    private GCallable function(String name, List<Token> params, Expr body, int size, boolean isStatic, Captures captures) {
+        return new Function(name, params, body, size, isStatic, captures.capture(env), captures);
+    }
+
+    // a function of the tree-walker; the JIT reads its body to inline constructors
+    static final class Function implements GCallable {
+        final String name;
+        final List<Token> params;
+        final Expr body;
+        final int size;
+        private final boolean isStatic;
+        // the captured variables
+        private final Environment e;
+        private final Captures captures;
+        private final Jit.Profile profile = new Jit.Profile();
+
+        Function(String name, List<Token> params, Expr body, int size, boolean isStatic, Environment e, Captures captures) {
+            this.name = name;
+            this.params = params;
+            this.body = body;
+            this.size = size;
+            this.isStatic = isStatic;
+            this.e = e;
+            this.captures = captures;
+        }
+
+        @Override
+        public String toString() {
+            return name == null ? "function anon" : "function " + name;
+        }
+        @Override
+        public int arity() {
+            return params.size();
+        }
+        @Override
+        public Object callN(Interpreter i, Object[] args) {
+            return trampoline(i, enterN(i, args));
+        }
+        @Override
+        public Object call0(Interpreter i) {
+            return trampoline(i, enter(i, null, null, null));
+        }
+        @Override
+        public Object call1(Interpreter i, Object a) {
+            return trampoline(i, enter(i, a, null, null));
+        }
+        @Override
+        public Object call2(Interpreter i, Object a, Object b) {
+            return trampoline(i, enter(i, a, b, null));
+        }
+        @Override
+        public Object enterN(Interpreter i, Object[] args) {
+            return enter(i, args.length > 0 ? args[0] : null, args.length > 1 ? args[1] : null, args);
+        }
+        // the first two arguments come separately, any further ones from args
+        private Object enter(Interpreter i, Object a, Object b, Object[] args) {
+            Jit.Compiled code = profile.tier(i, name, params, body, size);
+            if (code != null) return code.run(i, e, a, b, args);
+            Environment prev = i.env;
+            Jit.Profile caller = i.profile;
+            try {
+                i.profile = profile;
+                i.env = new Environment(e, size);
+                int count = params.size();
+                if (count > 0) i.env.slots[0] = a;
+                if (count > 1) i.env.slots[1] = b;
+                for (int index = 2; args != null && index < count && index < args.length; index++) {
+                    i.env.slots[index] = args[index];
                 }
+                if (captures.cells.length > 0) captures.box(i.env);
+                return body.accept(i);
+            } finally {
+                i.env = prev;
+                i.profile = caller;
             }
-            @Override
-            public boolean isStatic() {
-                return stmt.isStatic;
-            }
-        });
-
-        return null;
+        }
+        // counts a run of its inlined body as a call, so that once hot it is called compiled instead
+        boolean compiled(Interpreter i) {
+            return profile.tier(i, name, params, body, size) != null;
+        }
+        @Override
+        public boolean isStatic() {
+            return isStatic;
+        }
+        @Override
+        public Captures captures() {
+            return captures;
+        }
     }
 
     @Override
     public Void visitStatementStmt(Statement stmt) {
-        stmt.expression.accept(this);
+        effect(stmt.expression);
         return null;
     }
 
     @Override
     public Void visitPrintStmt(Print stmt) {
         Object val = stmt.expression.accept(this);
-        System.out.println(val == null ? "nothing" : val);
+        System.out.println(val == null ? "nothing" : Numbers.stringify(val));
         return null;
     }
 
     @Override
     public Object visitVariableExpr(Variable expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return env.getAt(distance, expr.name.lexeme);
-        } else {
-            return globals.eval(expr.name);
-        }
+        return expr.depth == -1 ? global(expr) : env.getAt(expr.depth, expr.slot);
     }
 
     @Override
     public Void visitVarStmt(Var stmt) {
-        env.def(stmt.name.lexeme, stmt.expression == null ? null : stmt.expression.accept(this));
+        if (stmt.cell) {
+            cell(stmt.slot).value = stmt.expression == null ? null : stmt.expression.accept(this);
+            return null;
+        }
+        if (defineNumber(stmt.slot, stmt.expression)) return null;
+        define(stmt.slot, stmt.global, stmt.expression == null ? null : stmt.expression.accept(this));
         return null;
     }
 
@@ -346,9 +569,15 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitWhileExpr(While expr) {
+        return loop(expr, true);
+    }
+
+    private Object loop(While expr, boolean keep) {
         Object res = null;
+        Jit.Profile counter = profile;
         while (isTruthy(expr.cond.accept(this))) {
-            res = expr.body.accept(this);
+            if (keep) res = expr.body.accept(this); else effect(expr.body);
+            if (counter != null) counter.hotness++;
         }
 
         return res;
@@ -356,9 +585,15 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitWithExpr(With expr) {
+        if (expr.flat) {
+            for (Stmt stmt : expr.stmts) {
+                stmt.accept(this);
+            }
+            return expr.body.accept(this);
+        }
         Environment prev = this.env;
         try {
-            this.env = new Environment(this.env);
+            this.env = new Environment(this.env, expr.size);
             for (Stmt stmt : expr.stmts) {
                 stmt.accept(this);
             }
@@ -386,165 +621,289 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitCallExpr(Call expr) {
-        Object callee = expr.callee.accept(this);
+        Object callee, obj = null;
+        if (expr.callee instanceof Get) {
+            obj = ((Get) expr.callee).obj.accept(this);
+            callee = method(obj, (Get) expr.callee);
+        } else {
+            callee = expr.callee.accept(this);
+        }
+        return call(expr, callee, obj);
+    }
+
+    // the rest of a call once the callee, and the object of a method call, are known
+    private Object call(Call expr, Object callee, Object obj) {
         if (!(callee instanceof GCallable)) throw new RE("not a funciton, you moron", expr.paren);
         GCallable func = (GCallable) callee;
-        List<Object> fargs = new ArrayList<>(expr.args.size());
-        for (Expr arg : expr.args) {
-            fargs.add(arg.accept(this));
+        int self = expr.callee instanceof Get && !func.isStatic() ? 1 : 0;
+        int argc = expr.args.size() + self;
+        if (argc <= 2 && !expr.tail) {
+            Object a = obj, b = null;
+            if (self == 0 && argc > 0) a = expr.args.get(0).accept(this);
+            if (argc == 2) b = expr.args.get(1 - self).accept(this);
+            if (!expr.cache.exact(func, argc, self, expr.paren)) return curry(func, Arrays.copyOf(new Object[] {a, b}, argc));
+            if (argc == 0) return func.call0(this);
+            return argc == 1 ? func.call1(this, a) : func.call2(this, a, b);
         }
-        if (expr.args.size() < func.arity()) {
-            return new GCallable() {
+        Object[] args = new Object[argc];
+        if (self == 1) args[0] = obj;
+        for (int k = self; k < argc; k++) {
+            args[k] = expr.args.get(k - self).accept(this);
+        }
+        if (!expr.cache.exact(func, argc, self, expr.paren)) return curry(func, args);
+        return expr.tail ? new TailCall(func, args) : func.callN(this, args);
+    }
 
-                @Override
-                public String toString() {
-                    return "function curried ["+(func.toString()) + "] with args ("+expr.args.size()+")";
-                }
-                @Override
-                public Object call(Interpreter i, List<Object> args) {
-                    List<Object> curried = new ArrayList<>(expr.args.size() + args.size());
-                    fargs.forEach(curried::add);
-                    args.forEach(curried::add);
-                    return func.call(i, curried);
-                }
+    /*
+     * A call with the body of the function it expects inlined. When the callee turns out to
+     * be that function the arguments go to the slots set aside for them in this frame and
+     * the body runs here; otherwise the call is made as usual.
+     */
+    @Override
+    public Object visitInlineExpr(Expr.Inline expr) {
+        Call call = expr.call;
+        Object callee, obj = null;
+        if (call.callee instanceof Get) {
+            obj = ((Get) call.callee).obj.accept(this);
+            callee = inlined(obj, (Get) call.callee);
+        } else {
+            callee = call.callee.accept(this);
+        }
+        if (callee instanceof Function && ((Function) callee).captures == expr.target && !((Function) callee).compiled(this)) {
+            int slot = expr.base;
+            if (expr.self) env.slots[slot++] = obj;
+            for (Expr arg : call.args) {
+                env.slots[slot++] = arg.accept(this);
+            }
+            return expr.body.accept(this);
+        }
+        if (call.callee instanceof Get) callee = method(obj, (Get) call.callee);
+        return call(call, callee, obj);
+    }
 
-                @Override
-                public int arity() {
-                    return func.arity() - expr.args.size();
-                }
-                @Override
-                public boolean isStatic() {
-                    return func.isStatic();
-                }
+    // the method obj.name finds, as declared, for an inlined call to compare
+    static Object inlined(Object obj, Get get) {
+        return obj instanceof GInstance ? get.cache.lookup((GInstance) obj, get.name) : null;
+    }
 
-            };
+    /*
+     * The callee of obj.name(...). A method that can take obj as its first argument
+     * comes back unbound, to be called with obj in front of the arguments; anything
+     * else comes back as obj.name would.
+     */
+    static Object method(Object obj, Get get) {
+        if (!(obj instanceof GInstance)) return get.cache.get(obj, get.name);
+        Object o = get.cache.lookup((GInstance) obj, get.name);
+        if (o instanceof GCallable && !((GCallable) o).isStatic() && ((GCallable) o).arity() != 0 && !get.name.lexeme.equals("new")) return o;
+        return property((GInstance) obj, get.name, o);
+    }
+
+    static Object call(Interpreter i, GCallable func, Object[] args, Token paren) {
+        if (partial(func, args.length, paren)) return curry(func, args);
+        return func.callN(i, args);
+    }
+
+    // a call the function it returns from makes on its way out, through its trampoline
+    static final class TailCall {
+        final GCallable func;
+        final Object[] args;
+
+        TailCall(GCallable func, Object[] args) {
+            this.func = func;
+            this.args = args;
         }
-        if (expr.args.size() != func.arity() && func.arity() != -1) throw new RE("Not Enough (or too many) arguments: expected "+ func.arity() + ", got: "+ expr.args.size(), expr.paren);
+    }
 
-        return func.call(this, fargs);
+    static Object trampoline(Interpreter i, Object result) {
+        while (result instanceof TailCall) {
+            TailCall call = (TailCall) result;
+            result = call.func.enterN(i, call.args);
+        }
+        return result;
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    private static boolean partial(GCallable func, int argc, Token paren) {
+        int arity = func.arity();
+        if (argc < arity) return true;
+        if (argc != arity && arity != -1) throw new RE("Not Enough (or too many) arguments: expected "+ arity + ", got: "+ argc, paren);
+        return false;
+    }
+
+    static Object[] prepend(Object first, Object[] rest) {
+        Object[] args = new Object[rest.length + 1];
+        args[0] = first;
+        System.arraycopy(rest, 0, args, 1, rest.length);
+        return args;
+    }
+
+    // currying a curried function extends its arguments, so there is never more than one layer
+    static GCallable curry(GCallable func, Object[] fargs) {
+        if (func instanceof Curried) {
+            Curried curried = (Curried) func;
+            return new Curried(curried.func, concat(curried.fargs, fargs));
+        }
+        return new Curried(func, fargs);
+    }
+
+    private static Object[] concat(Object[] first, Object[] rest) {
+        if (rest.length == 0) return first;
+        Object[] args = Arrays.copyOf(first, first.length + rest.length);
+        System.arraycopy(rest, 0, args, first.length, rest.length);
+        return args;
+    }
+
+    static final class Curried implements GCallable {
+        final GCallable func;
+        final Object[] fargs;
+
+        Curried(GCallable func, Object[] fargs) {
+            this.func = func;
+            this.fargs = fargs;
+        }
+
+        @Override
+        public String toString() {
+            return "function curried ["+(func.toString()) + "] with args ("+fargs.length+")";
+        }
+        @Override
+        public Object callN(Interpreter i, Object[] args) {
+            return trampoline(i, enterN(i, args));
+        }
+        @Override
+        public Object call1(Interpreter i, Object a) {
+            if (fargs.length == 1) return func.call2(i, fargs[0], a);
+            return callN(i, new Object[] {a});
+        }
+        @Override
+        public Object enterN(Interpreter i, Object[] args) {
+            return func.enterN(i, concat(fargs, args));
+        }
+
+        @Override
+        public int arity() {
+            return func.arity() - fargs.length;
+        }
+        @Override
+        public boolean isStatic() {
+            return func.isStatic();
+        }
     }
 
     @Override
     public Void visitClassStmt(Class stmt) {
-        env.def(stmt.name.lexeme, null); 
+        define(stmt);
+        return null;
+    }
+
+    private GClass define(Stmt.Class stmt) {
         GClass cl = new GClass(stmt.name.lexeme);
-        env.assign(stmt.name, cl);
-        Environment prev = this.env;
-        try {
-            this.env = new Environment(this.env);
-            for (Stmt.Fun f : stmt.methods) {
-                f.accept(this);
-            }
-            this.env.map.forEach(new Object() {
-                void run(String name, Object val) {
-                    cl.methods.put(name, val);
-                    if (((GCallable)val).isStatic()) cl.fields.put(name, val);
-                };
-            }::run);
-        } finally {
-            this.env = prev;
+        if (stmt.cell) cell(stmt.slot).value = cl; else define(stmt.slot, stmt.global, cl);
+        methods(cl, stmt.methods);
+        return cl;
+    }
+
+    private void methods(GClass cl, List<Stmt.Fun> methods) {
+        for (Stmt.Fun f : methods) {
+            GCallable method = function(f);
+            cl.define(f.name.lexeme, method);
+            if (method.isStatic()) cl.put(f.name.lexeme, method);
         }
-        return null;
     }
 
     @Override
     public Object visitAnonExpr(Anon expr) {
         GClass cl = new GClass();
-        Environment prev = this.env;
-        try {
-            this.env = new Environment(this.env);
-            for (Stmt.Fun f : expr.methods) {
-                f.accept(this);
-            }
-            this.env.map.forEach(new Object() {
-                void run(String name, Object val) {
-                    cl.methods.put(name, val);
-                    if (((GCallable)val).isStatic()) cl.fields.put(name, val);
-                };
-            }::run);
-        } finally {
-            this.env = prev;
-        }
-
+        methods(cl, expr.methods);
         return cl;
     }
 
     @Override
     public Object visitGetExpr(Get expr) {
-        Object obj = expr.obj.accept(this);
+        return expr.cache.get(expr.obj.accept(this), expr.name);
+    }
 
-        if (obj instanceof GInstance) {
-            Object o = ((GInstance) obj).get(expr.name);
-            if (expr.name.lexeme.equals("new")) throw new RE("no direct constructor invocation, you moron", expr.name);
-            if (o instanceof GCallable) {
-                GCallable orig = (GCallable) o;
-                int arity = orig.arity();
-                return orig.isStatic() ? orig : new GCallable() {
-                    @Override
-                    public Object call(Interpreter i, List<Object> args) {
-                        args.add(0, obj);
-                        return orig.call(i, args);
-                    }
-                    @Override
-                    public int arity() {
-                        return arity == -1 ? arity : arity - 1;
-                    }
-                    @Override
-                    public boolean isStatic() {
-                        return true;
-                    }
-                };
-            }
-            return o;
-        }
+    static Object getProperty(Object obj, Token name) {
+        if (obj instanceof GInstance) return property((GInstance) obj, name, ((GInstance) obj).get(name));
 
-        return new RE("no such thing here", expr.name);
+        return new RE("no such thing here", name);
+    }
+
+    // the value of a property as seen through obj: methods come back bound to it
+    static Object property(GInstance obj, Token name, Object o) {
+        if (name.lexeme.equals("new")) throw new RE("no direct constructor invocation, you moron", name);
+        if (o instanceof GCallable) {
+            GCallable orig = (GCallable) o;
+            int arity = orig.arity();
+            return orig.isStatic() ? orig : new GCallable() {
+                @Override
+                public Object callN(Interpreter i, Object[] args) {
+                    return trampoline(i, enterN(i, args));
+                }
+                @Override
+                public Object call0(Interpreter i) {
+                    return orig.call1(i, obj);
+                }
+                @Override
+                public Object call1(Interpreter i, Object a) {
+                    return orig.call2(i, obj, a);
+                }
+                @Override
+                public Object enterN(Interpreter i, Object[] args) {
+                    return orig.enterN(i, prepend(obj, args));
+                }
+                @Override
+                public int arity() {
+                    return arity == -1 ? arity : arity - 1;
+                }
+                @Override
+                public boolean isStatic() {
+                    return true;
+                }
+            };
+        }
+        return o;
     }
 
     @Override
     public Object visitSetExpr(Set expr) {
         Object val = expr.value.accept(this);
-        Object obj = expr.obj.accept(this);
+        return expr.cache.set(expr.obj.accept(this), expr.name, val);
+    }
 
+    static Object setProperty(Object obj, Token name, Object val) {
         if (obj instanceof GInstance) {
-            ((GInstance) obj).assign(expr.name, val);
+            ((GInstance) obj).assign(name, val);
             return val;
         }
 
-        throw new RE("could not assign unassignable", expr.name);
+        throw new RE("could not assign unassignable", name);
     }
 
     @Override
     public Void visitConstStmt(Const stmt) {
-        env.constdef(stmt.name.lexeme, stmt.expression == null ? null : stmt.expression.accept(this));
+        if (defineNumber(stmt.slot, stmt.expression)) return null;
+        Object val = stmt.expression == null ? null : stmt.expression.accept(this);
+        if (stmt.slot == -1) globals.defineConst(stmt.global, val); else env.slots[stmt.slot] = val;
         return null;
     }
 
     @Override
     public Void visitExtendClassStmt(ExtendClass stmt) {
-        GClass sup = (GClass) env.eval(stmt.father);
-        if (sup == null) throw new RE("no father class with such a name found", stmt.father);
-        stmt.def.accept(this);
-        GClass sub = (GClass) env.eval(stmt.def.name);
-        for (String name : sup.methods.keySet()) {
-            if (!sub.methods.containsKey(name)) sub.methods.put(name, sup.methods.get(name));
-        }
+        Object father = lookup(stmt.depth, stmt.slot, stmt.father);
+        if (!(father instanceof GClass)) throw new RE("no father class with such a name found", stmt.father);
+        GClass sup = (GClass) father;
+        define(stmt.def).inherit(sup);
 
         return null;
     }
 
     @Override
     public Object visitExtendAnonExpr(ExtendAnon expr) {
-        GClass sup = (GClass) env.eval(expr.father);
-        if (sup == null) throw new RE("no father class with such a name found", expr.father);
+        Object father = lookup(expr.depth, expr.slot, expr.father);
+        if (!(father instanceof GClass)) throw new RE("no father class with such a name found", expr.father);
+        GClass sup = (GClass) father;
         GClass son = (GClass) expr.def.accept(this);
-        for (String name : sup.methods.keySet()) {
-            if (!son.methods.containsKey(name)) son.methods.put(name, sup.methods.get(name));
-        }
+        son.inherit(sup);
 
         return son;
     }
@@ -0,0 +1,1287 @@
+package guru;
+
+import static guru.Assembler.*;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import guru.Assembler.Label;
+import guru.Parser.Void;
+
+/*
+ * Second tier for tree-walked functions. Every function counts its calls and the
+ * loop iterations it runs; once it gets hot its body is translated into a hidden
+ * JVM class so HotSpot can take it from there. '+' sites are compiled for the
+ * operand types the interpreter has seen so far; when such a guess turns out to be
+ * wrong the site widens, the compiled code is dropped and later calls are
+ * interpreted again until the function gets hot once more.
+ */
+class Jit implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int THRESHOLD = 1000;
+    static final int MAX_DEOPTS = 4;
+
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    private static final String DOUBLE = "java/lang/Double", LONG = "java/lang/Long", STRING = "java/lang/String", BOOLEAN = "java/lang/Boolean",
+        COMPILED = "guru/Jit$Compiled", INTERPRETER = "guru/Interpreter",
+        ENVIRONMENT = "guru/Environment";
+
+    static final class Profile {
+        int hotness;
+        private int deopts;
+        private Compiled code;
+
+        Compiled tier(Interpreter i, String name, List<Token> params, Expr body, int size) {
+            if (code != null) {
+                if (code.valid) return code;
+                code = null;
+                hotness = 0;
+                deopts++;
+            }
+            if (++hotness < THRESHOLD || deopts >= MAX_DEOPTS) return null;
+            code = compile(i, name, params, body, size);
+            if (code == null) deopts = MAX_DEOPTS;
+            return code;
+        }
+    }
+
+    // a constructor the JIT runs inline: the class and constructor it was read from, and the fields it sets
+    static final class Scalar {
+        final GClass klass;
+        final Object constructor;
+        final String[] fields;
+        private int version;
+
+        Scalar(GClass klass, Object constructor, String[] fields) {
+            this.klass = klass;
+            this.constructor = constructor;
+            this.fields = fields;
+            this.version = klass.version();
+        }
+
+        boolean matches(Object callee) {
+            if (callee != klass) return false;
+            int version = klass.version();
+            if (this.version != version) {
+                if (klass.method("new") != constructor) return false;
+                this.version = version;
+            }
+            return true;
+        }
+    }
+
+    abstract static class Compiled {
+        // held by the variable of an object whose fields are in locals
+        static final Object SCALAR = new Object();
+
+        final Object[] constants;
+        boolean valid = true;
+        // the value behind the NaN a Double site's unboxed code got, which may be anything
+        Object spill;
+
+        Compiled(Object[] constants) {
+            this.constants = constants;
+        }
+
+        // the first two arguments come unpacked, the rest, if any, in args
+        abstract Object run(Interpreter i, Environment closure, Object a, Object b, Object[] args);
+
+        final Token token(int k) {
+            return (Token) constants[k];
+        }
+
+        static Object arg(Object[] args, int index) {
+            return args != null && index < args.length ? args[index] : null;
+        }
+
+        final double num(Object o, int k) {
+            if (o instanceof Double) return (Double) o;
+            if (o instanceof Long) return (Long) o;
+            throw new Interpreter.RE("Operand must be a number.", token(k));
+        }
+
+        final Object binary(Object left, Object right, int k) {
+            return Interpreter.binary(((Expr.Binary) constants[k]).operator, left, right);
+        }
+
+        // a Double site takes a Long alongside a Double as it is; two Longs generalize it
+        final Object deopt(Object left, Object right, int k) {
+            Expr.Binary site = (Expr.Binary) constants[k];
+            if (site.node.yields == BinaryNode.DOUBLE && Numbers.isNumber(left) && Numbers.isNumber(right)
+                    && !(left instanceof Long && right instanceof Long))
+                return Interpreter.binary(site.operator, left, right);
+            valid = false;
+            return BinaryNode.generalize(site, left, right);
+        }
+
+        // a value for a Double site's unboxed code: itself if it is a Double, else NaN with it spilled
+        final double real(Object o) {
+            if (o instanceof Double) {
+                double d = (Double) o;
+                if (d == d) return d;
+            }
+            spill = o;
+            return Double.NaN;
+        }
+
+        final double real(Object obj, int g) {
+            Expr.Get site = (Expr.Get) constants[g];
+            double d = site.cache.real(obj, site.name);
+            return d == d ? d : real(site.cache.get(obj, site.name));
+        }
+
+        // a result computed unboxed, which only needs a box to tell a NaN apart
+        final double real(double d) {
+            if (d != d) spill = d;
+            return d;
+        }
+
+        // operands a Double site could not take unboxed: a NaN stands for the spilled value
+        final double real(double l, Object lo, double r, Object ro, int k) {
+            return real(deopt(l == l ? (Object) l : lo, r == r ? (Object) r : ro, k));
+        }
+
+        final Object boxed(double d) {
+            return d == d ? (Object) d : spill;
+        }
+
+        final double num(double d, int k) {
+            return d == d ? d : num(spill, k);
+        }
+
+        final Object negate(Object o, int k) {
+            return o instanceof Double ? -(Double) o : Numbers.negate(Interpreter.RE.chNum(token(k), o));
+        }
+
+        final GCallable callee(Object o, int k) {
+            if (!(o instanceof GCallable)) throw new Interpreter.RE("not a funciton, you moron", ((Expr.Call) constants[k]).paren);
+            return (GCallable) o;
+        }
+
+        final Object call(Interpreter i, GCallable func, Object[] args, int k) {
+            Expr.Call site = (Expr.Call) constants[k];
+            if (!site.cache.exact(func, args.length, self(site, func), site.paren)) return Interpreter.curry(func, args);
+            return func.callN(i, args);
+        }
+
+        final Object tail(GCallable func, Object[] args, int k) {
+            Expr.Call site = (Expr.Call) constants[k];
+            if (!site.cache.exact(func, args.length, self(site, func), site.paren)) return Interpreter.curry(func, args);
+            return new Interpreter.TailCall(func, args);
+        }
+
+        final GCallable method(Object obj, int k) {
+            return callee(Interpreter.method(obj, (Expr.Get) ((Expr.Call) constants[k]).callee), k);
+        }
+
+        static Object[] args(GCallable func, Object obj, int size) {
+            if (func.isStatic()) return new Object[size];
+            Object[] args = new Object[size + 1];
+            args[0] = obj;
+            return args;
+        }
+
+        static Object[] args(int size) {
+            return new Object[size];
+        }
+
+        // arguments are stored counting back from the end, past a receiver if there is one
+        static void put(Object[] args, Object value, int fromEnd) {
+            args[args.length - fromEnd] = value;
+        }
+
+        private static int self(Expr.Call site, GCallable func) {
+            return site.callee instanceof Expr.Get && !func.isStatic() ? 1 : 0;
+        }
+
+        // whether an inlined call reaches the function whose body was inlined
+        final boolean inlined(Object value, int k) {
+            Expr.Inline site = (Expr.Inline) constants[k];
+            Object callee = site.call.callee instanceof Expr.Get ? Interpreter.inlined(value, (Expr.Get) site.call.callee) : value;
+            return callee instanceof GCallable && ((GCallable) callee).captures() == site.target;
+        }
+
+        final Object get(Object obj, int k) {
+            Expr.Get site = (Expr.Get) constants[k];
+            return site.cache.get(obj, site.name);
+        }
+
+        final Object set(Object val, Object obj, int k) {
+            Expr.Set site = (Expr.Set) constants[k];
+            return site.cache.set(obj, site.name, val);
+        }
+
+        final double number(Object obj, int g, int k) {
+            Expr.Get site = (Expr.Get) constants[g];
+            return site.cache.number(obj, site.name, token(k));
+        }
+
+        final void set(double val, Object obj, int k) {
+            Expr.Set site = (Expr.Set) constants[k];
+            site.cache.set(obj, site.name, val);
+        }
+
+        final Object global(Interpreter i, int slot, int k) {
+            return i.globals.get(slot, token(k));
+        }
+
+        final void assign(Interpreter i, Object val, int slot, int k) {
+            i.globals.assign(slot, token(k), val);
+        }
+
+        final boolean scalar(Object callee, int k) {
+            return ((Scalar) constants[k]).matches(callee);
+        }
+
+        // a field value that reads the same without the object it came from
+        static boolean plain(Object value) {
+            return !(value instanceof GCallable);
+        }
+
+        static Object field(Object value) {
+            return value == null ? Parser.Void.VOID : value;
+        }
+
+        final Object materialize(Object[] values, int k) {
+            Scalar scalar = (Scalar) constants[k];
+            GInstance inst = scalar.klass.instance();
+            for (int index = 0; index < values.length; index++) {
+                inst.put(scalar.fields[index], values[index]);
+            }
+            return inst;
+        }
+
+        static void print(Object val) {
+            System.out.println(val == null ? "nothing" : Numbers.stringify(val));
+        }
+    }
+
+    private static class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    static Compiled compile(Interpreter i, String name, List<Token> params, Expr body, int size) {
+        Jit jit = new Jit(i);
+        try {
+            byte[] bytes = jit.assemble(name == null ? "anon" : name, params, body, size);
+            Class<?> c = lookup.defineHiddenClass(bytes, true).lookupClass();
+            Compiled code = (Compiled) c.getDeclaredConstructor(Object[].class).newInstance((Object) jit.constants.toArray());
+            for (int slot : jit.linked) i.globals.depend(slot, code);
+            return code;
+        } catch (Unsupported | IllegalStateException | ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    // a variable whose object lives in locals: fields from base on, in Scalar.fields order
+    private static final class Inline {
+        final int k, base;
+        final String[] fields;
+
+        Inline(int k, int base, String[] fields) {
+            this.k = k;
+            this.base = base;
+            this.fields = fields;
+        }
+
+        int field(String name) {
+            for (int index = 0; index < fields.length; index++) {
+                if (fields[index].equals(name) && !name.equals("new")) return index;
+            }
+            return -1;
+        }
+    }
+
+    private final Interpreter interpreter;
+    private final Assembler asm = new Assembler();
+    private final List<Object> constants = new ArrayList<>();
+    private final List<Integer> scopes = new ArrayList<>();
+    // by the local of the variable
+    private final Map<Integer, Inline> inlines = new HashMap<>();
+    // the global slots of the consts inlined
+    private final List<Integer> linked = new ArrayList<>();
+
+    private Jit(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    private byte[] assemble(String name, List<Token> params, Expr body, int size) {
+        asm.begin(ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V", 2);
+        asm.aload(0);
+        asm.aload(1);
+        asm.invoke(INVOKESPECIAL, COMPILED, "<init>", "([Ljava/lang/Object;)V");
+        asm.op(RETURN, 0);
+        asm.end();
+
+        asm.begin(ACC_PUBLIC, "run", "(Lguru/Interpreter;Lguru/Environment;Ljava/lang/Object;Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;", 6);
+        int base = scope(size);
+        for (int index = 0; index < params.size() && index < size; index++) {
+            if (index < 2) {
+                asm.aload(3 + index);
+            } else {
+                asm.aload(5);
+                asm.push(index);
+                asm.invoke(INVOKESTATIC, COMPILED, "arg", "([Ljava/lang/Object;I)Ljava/lang/Object;");
+            }
+            asm.astore(base + index);
+        }
+        value(body);
+        asm.op(ARETURN, -1);
+        asm.end();
+        return asm.finish("guru/Jit$" + name, COMPILED);
+    }
+
+    private int constant(Object o) {
+        constants.add(o);
+        return constants.size() - 1;
+    }
+
+    private void helper(String name, String desc, int k) {
+        asm.push(k);
+        asm.invoke(INVOKEVIRTUAL, COMPILED, name, desc);
+    }
+
+    private int scope(int size) {
+        int base = asm.local(size);
+        for (int slot = 0; slot < size; slot++) {
+            asm.op(ACONST_NULL, 1);
+            asm.astore(base + slot);
+        }
+        scopes.add(base);
+        return base;
+    }
+
+    private void unscope(int mark) {
+        scopes.remove(scopes.size() - 1);
+        release(mark);
+    }
+
+    // frees the locals from mark on, and forgets the objects whose fields were kept in them
+    private void release(int mark) {
+        inlines.values().removeIf(inline -> inline.base >= mark);
+        asm.release(mark);
+    }
+
+    private void value(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void box() {
+        asm.invoke(INVOKESTATIC, DOUBLE, "valueOf", "(D)Ljava/lang/Double;");
+    }
+
+    private void bool(boolean value) {
+        asm.field(GETSTATIC, BOOLEAN, value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+    }
+
+    private static boolean isComparison(TokenType type) {
+        return type == TokenType.LESS || type == TokenType.LESS_EQUAL
+            || type == TokenType.GREATER || type == TokenType.GREATER_EQUAL;
+    }
+
+    private static boolean isArithmetic(TokenType type) {
+        return type == TokenType.MINUS || type == TokenType.STAR || type == TokenType.SLASH;
+    }
+
+    // expressions whose number() leaves a double without a pending operand check
+    private static boolean numeric(Expr expr) {
+        if (expr instanceof Expr.Grouping) return numeric(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Literal) return Numbers.isNumber(((Expr.Literal) expr).value);
+        if (expr instanceof Expr.Variable) return Numbers.isNumber(((Expr.Variable) expr).constant);
+        if (expr instanceof Expr.Unary) return ((Expr.Unary) expr).operator.type == TokenType.MINUS;
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary b = (Expr.Binary) expr;
+            return isArithmetic(b.operator.type)
+                || b.operator.type == TokenType.PLUS && numeric(b.left) && numeric(b.right);
+        }
+        return false;
+    }
+
+    // numeric expressions that are sure to be Doubles, so they are computed unboxed: Longs
+    // alone would have to stay exact, so at least one operand of each operator is a Double
+    private static boolean doubles(Expr expr) {
+        if (expr instanceof Expr.Grouping) return doubles(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Literal) return ((Expr.Literal) expr).value instanceof Double;
+        if (expr instanceof Expr.Variable) return ((Expr.Variable) expr).constant instanceof Double;
+        if (expr instanceof Expr.Unary) return ((Expr.Unary) expr).operator.type == TokenType.MINUS && doubles(((Expr.Unary) expr).right);
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary b = (Expr.Binary) expr;
+            return numeric(b) && (isArithmetic(b.operator.type) || b.operator.type == TokenType.PLUS) && (doubles(b.left) || doubles(b.right));
+        }
+        return false;
+    }
+
+    // Double sites whose operands are not sure to be Doubles, computed unboxed while they are
+    private static boolean isReal(Expr expr) {
+        if (expr instanceof Expr.Grouping) return isReal(((Expr.Grouping) expr).expression);
+        return expr instanceof Expr.Binary && ((Expr.Binary) expr).node.yields == BinaryNode.DOUBLE && !doubles(expr);
+    }
+
+    // expressions that can neither fail nor have side effects, so they may be evaluated early
+    private static boolean simple(Expr expr) {
+        if (expr instanceof Expr.Grouping) return simple(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Variable) return ((Expr.Variable) expr).depth != -1 || ((Expr.Variable) expr).constant != null;
+        return expr instanceof Expr.Literal;
+    }
+
+    private void number(Expr expr, int k) {
+        if (expr instanceof Expr.Grouping) {
+            number(((Expr.Grouping) expr).expression, k);
+        } else if (expr instanceof Expr.Literal && Numbers.isNumber(((Expr.Literal) expr).value)) {
+            asm.ldc(Numbers.toDouble(((Expr.Literal) expr).value));
+        } else if (numeric(expr) && expr instanceof Expr.Variable) {
+            Expr.Variable var = (Expr.Variable) expr;
+            linked.add(var.slot);
+            asm.ldc(Numbers.toDouble(var.constant));
+        } else if (doubles(expr) && expr instanceof Expr.Unary) {
+            Expr.Unary u = (Expr.Unary) expr;
+            number(u.right, constant(u.operator));
+            asm.op(DNEG, 0);
+        } else if (doubles(expr) && expr instanceof Expr.Binary) {
+            Expr.Binary b = (Expr.Binary) expr;
+            operands(b);
+            asm.op(arithmetic(b.operator.type), -2);
+        } else if (isReal(expr)) {
+            asm.aload(0);
+            real(expr);
+            helper("num", "(DI)D", k);
+        } else if (expr instanceof Expr.Get && scalar(((Expr.Get) expr).obj) == null) {
+            asm.aload(0);
+            value(((Expr.Get) expr).obj);
+            asm.push(constant(expr));
+            helper("number", "(Ljava/lang/Object;II)D", k);
+        } else {
+            asm.aload(0);
+            value(expr);
+            helper("num", "(Ljava/lang/Object;I)D", k);
+        }
+    }
+
+    // both operands as doubles, checked in the same order the interpreter checks them
+    private void operands(Expr.Binary expr) {
+        int k = constant(expr.operator);
+        if (numeric(expr.left) || simple(expr.right)) {
+            number(expr.left, k);
+            number(expr.right, k);
+            return;
+        }
+        int mark = asm.locals();
+        int left = asm.local(1);
+        value(expr.left);
+        asm.astore(left);
+        if (numeric(expr.right)) {
+            int right = asm.local(2);
+            number(expr.right, k);
+            asm.dstore(right);
+            asm.aload(0);
+            asm.aload(left);
+            helper("num", "(Ljava/lang/Object;I)D", k);
+            asm.dload(right);
+        } else {
+            int right = asm.local(1);
+            value(expr.right);
+            asm.astore(right);
+            asm.aload(0);
+            asm.aload(left);
+            helper("num", "(Ljava/lang/Object;I)D", k);
+            asm.aload(0);
+            asm.aload(right);
+            helper("num", "(Ljava/lang/Object;I)D", k);
+        }
+        asm.release(mark);
+    }
+
+    // expr as a double that stands for its value, unless it is NaN and the value is in spill
+    private void real(Expr expr) {
+        if (expr instanceof Expr.Grouping) {
+            real(((Expr.Grouping) expr).expression);
+        } else if (doubles(expr)) {
+            asm.aload(0);
+            number(expr, -1);
+            asm.invoke(INVOKEVIRTUAL, COMPILED, "real", "(D)D");
+        } else if (isReal(expr)) {
+            Expr.Binary b = (Expr.Binary) expr;
+            int mark = asm.locals();
+            int left = asm.local(2), spilled = asm.local(1), right = asm.local(2);
+            Label slow = new Label(), end = new Label();
+            real(b.left);
+            asm.dstore(left);
+            spill();
+            asm.astore(spilled);
+            real(b.right);
+            asm.dstore(right);
+            for (int operand : new int[] {left, right}) {
+                asm.dload(operand);
+                asm.dload(operand);
+                asm.op(DCMPL, -3);
+                asm.jump(IFNE, slow);
+            }
+            asm.aload(0);
+            asm.dload(left);
+            asm.dload(right);
+            asm.op(arithmetic(b.operator.type), -2);
+            asm.invoke(INVOKEVIRTUAL, COMPILED, "real", "(D)D");
+            asm.jump(GOTO, end);
+            asm.place(slow);
+            asm.aload(0);
+            asm.dload(left);
+            asm.aload(spilled);
+            asm.dload(right);
+            spill();
+            helper("real", "(DLjava/lang/Object;DLjava/lang/Object;I)D", constant(b));
+            asm.place(end);
+            asm.release(mark);
+        } else if (expr instanceof Expr.Get && scalar(((Expr.Get) expr).obj) == null) {
+            asm.aload(0);
+            value(((Expr.Get) expr).obj);
+            helper("real", "(Ljava/lang/Object;I)D", constant(expr));
+        } else {
+            asm.aload(0);
+            value(expr);
+            asm.invoke(INVOKEVIRTUAL, COMPILED, "real", "(Ljava/lang/Object;)D");
+        }
+    }
+
+    private void spill() {
+        asm.aload(0);
+        asm.field(GETFIELD, COMPILED, "spill", "Ljava/lang/Object;");
+    }
+
+    private static int arithmetic(TokenType type) {
+        return type == TokenType.MINUS ? DSUB : type == TokenType.STAR ? DMUL : type == TokenType.SLASH ? DDIV : DADD;
+    }
+
+    // two operands that may both be Longs, compared as longs when they are, so that it is exact
+    private void compare(Expr.Binary expr) {
+        TokenType type = expr.operator.type;
+        int k = constant(expr.operator);
+        int mark = asm.locals();
+        int left = asm.local(1), right = asm.local(1);
+        Label doubles = new Label(), end = new Label();
+        value(expr.left);
+        asm.astore(left);
+        value(expr.right);
+        asm.astore(right);
+        asm.aload(left);
+        asm.type(INSTANCEOF, LONG);
+        asm.jump(IFEQ, doubles);
+        asm.aload(right);
+        asm.type(INSTANCEOF, LONG);
+        asm.jump(IFEQ, doubles);
+        asm.aload(left);
+        asm.type(CHECKCAST, LONG);
+        asm.invoke(INVOKEVIRTUAL, LONG, "longValue", "()J");
+        asm.aload(right);
+        asm.type(CHECKCAST, LONG);
+        asm.invoke(INVOKEVIRTUAL, LONG, "longValue", "()J");
+        asm.op(LCMP, -3);
+        asm.jump(GOTO, end);
+        asm.place(doubles);
+        asm.aload(0);
+        asm.aload(left);
+        helper("num", "(Ljava/lang/Object;I)D", k);
+        asm.aload(0);
+        asm.aload(right);
+        helper("num", "(Ljava/lang/Object;I)D", k);
+        asm.op(type == TokenType.LESS || type == TokenType.LESS_EQUAL ? DCMPG : DCMPL, -3);
+        asm.place(end);
+        asm.release(mark);
+    }
+
+    private void cond(Expr expr, Label target, boolean jumpIf) {
+        if (expr instanceof Expr.Grouping) {
+            cond(((Expr.Grouping) expr).expression, target, jumpIf);
+        } else if (expr instanceof Expr.Unary && ((Expr.Unary) expr).operator.type == TokenType.BANG) {
+            cond(((Expr.Unary) expr).right, target, !jumpIf);
+        } else if (expr instanceof Expr.Logika) {
+            Expr.Logika l = (Expr.Logika) expr;
+            boolean or = l.operator.type == TokenType.OR;
+            if (or == jumpIf) {
+                cond(l.left, target, jumpIf);
+                cond(l.right, target, jumpIf);
+            } else {
+                Label skip = new Label();
+                cond(l.left, skip, !jumpIf);
+                cond(l.right, target, jumpIf);
+                asm.place(skip);
+            }
+        } else if (expr instanceof Expr.Binary && isComparison(((Expr.Binary) expr).operator.type)) {
+            Expr.Binary b = (Expr.Binary) expr;
+            if (doubles(b.left) || doubles(b.right)) {
+                operands(b);
+                asm.op(b.operator.type == TokenType.LESS || b.operator.type == TokenType.LESS_EQUAL ? DCMPG : DCMPL, -3);
+            } else {
+                compare(b);
+            }
+            switch (b.operator.type) {
+                case LESS:
+                    asm.jump(jumpIf ? IFLT : IFGE, target);
+                    break;
+                case LESS_EQUAL:
+                    asm.jump(jumpIf ? IFLE : IFGT, target);
+                    break;
+                case GREATER:
+                    asm.jump(jumpIf ? IFGT : IFLE, target);
+                    break;
+                default:
+                    asm.jump(jumpIf ? IFGE : IFLT, target);
+                    break;
+            }
+        } else {
+            value(expr);
+            asm.invoke(INVOKESTATIC, INTERPRETER, "isTruthy", "(Ljava/lang/Object;)Z");
+            asm.jump(jumpIf ? IFNE : IFEQ, target);
+        }
+    }
+
+    private void condValue(Expr expr) {
+        Label no = new Label(), end = new Label();
+        cond(expr, no, false);
+        bool(true);
+        asm.jump(GOTO, end);
+        asm.place(no);
+        bool(false);
+        asm.place(end);
+    }
+
+    private void guarded(Expr.Binary expr, String type) {
+        int k = constant(expr);
+        int mark = asm.locals();
+        int left = asm.local(1), right = asm.local(1);
+        Label slow = new Label(), end = new Label();
+        value(expr.left);
+        asm.astore(left);
+        value(expr.right);
+        asm.astore(right);
+        asm.aload(left);
+        asm.type(INSTANCEOF, type);
+        asm.jump(IFEQ, slow);
+        asm.aload(right);
+        asm.type(INSTANCEOF, type);
+        asm.jump(IFEQ, slow);
+        asm.aload(left);
+        asm.type(CHECKCAST, type);
+        TokenType op = expr.operator.type;
+        if (type.equals(LONG)) {
+            asm.invoke(INVOKEVIRTUAL, LONG, "longValue", "()J");
+            asm.aload(right);
+            asm.type(CHECKCAST, LONG);
+            asm.invoke(INVOKEVIRTUAL, LONG, "longValue", "()J");
+            String exact = op == TokenType.MINUS ? "subtract" : op == TokenType.STAR ? "multiply" : "add";
+            asm.invoke(INVOKESTATIC, "guru/Numbers", exact, "(JJ)Ljava/lang/Object;");
+        } else {
+            asm.aload(right);
+            asm.type(CHECKCAST, STRING);
+            asm.invoke(INVOKEVIRTUAL, STRING, "concat", "(Ljava/lang/String;)Ljava/lang/String;");
+        }
+        asm.jump(GOTO, end);
+        asm.place(slow);
+        asm.aload(0);
+        asm.aload(left);
+        asm.aload(right);
+        helper("deopt", "(Ljava/lang/Object;Ljava/lang/Object;I)Ljava/lang/Object;", k);
+        asm.place(end);
+        asm.release(mark);
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        TokenType type = expr.operator.type;
+        if (doubles(expr)) {
+            number(expr, -1);
+            box();
+        } else if (isComparison(type)) {
+            condValue(expr);
+        } else if (isReal(expr)) {
+            asm.aload(0);
+            real(expr);
+            asm.invoke(INVOKEVIRTUAL, COMPILED, "boxed", "(D)Ljava/lang/Object;");
+        } else if (expr.node.yields == BinaryNode.LONG) {
+            guarded(expr, LONG);
+        } else if (type == TokenType.PLUS && expr.node == BinaryNode.STRING_ADD) {
+            guarded(expr, STRING);
+        } else if (type == TokenType.EQUAL_EQUAL || type == TokenType.BANG_EQUAL) {
+            value(expr.left);
+            value(expr.right);
+            asm.invoke(INVOKESTATIC, INTERPRETER, "isEqual", "(Ljava/lang/Object;Ljava/lang/Object;)Z");
+            if (type == TokenType.BANG_EQUAL) {
+                asm.push(1);
+                asm.op(0x82, -1);
+            }
+            asm.invoke(INVOKESTATIC, BOOLEAN, "valueOf", "(Z)Ljava/lang/Boolean;");
+        } else {
+            asm.aload(0);
+            value(expr.left);
+            value(expr.right);
+            helper("binary", "(Ljava/lang/Object;Ljava/lang/Object;I)Ljava/lang/Object;", constant(expr));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.MINUS && doubles(expr)) {
+            number(expr, -1);
+            box();
+        } else if (expr.operator.type == TokenType.MINUS) {
+            asm.aload(0);
+            value(expr.right);
+            helper("negate", "(Ljava/lang/Object;I)Ljava/lang/Object;", constant(expr.operator));
+        } else if (expr.operator.type == TokenType.BANG) {
+            condValue(expr);
+        } else {
+            asm.op(ACONST_NULL, 1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogikaExpr(Expr.Logika expr) {
+        Label end = new Label();
+        value(expr.left);
+        asm.op(DUP, 1);
+        asm.invoke(INVOKESTATIC, INTERPRETER, "isTruthy", "(Ljava/lang/Object;)Z");
+        asm.jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, end);
+        asm.op(POP, -1);
+        value(expr.right);
+        asm.place(end);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            asm.op(ACONST_NULL, 1);
+        } else if (expr.value instanceof String) {
+            asm.ldc((String) expr.value);
+        } else if (expr.value instanceof Boolean) {
+            bool((Boolean) expr.value);
+        } else {
+            asm.aload(0);
+            asm.field(GETFIELD, COMPILED, "constants", "[Ljava/lang/Object;");
+            asm.push(constant(expr.value));
+            asm.op(AALOAD, -1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        value(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitCommaExpressionsExpr(Expr.CommaExpressions expr) {
+        asm.op(ACONST_NULL, 1);
+        for (Expr e : expr.expressionList) {
+            asm.op(POP, -1);
+            value(e);
+        }
+        return null;
+    }
+
+    private void load(int depth, int slot, Token name) {
+        if (depth == -1) {
+            asm.aload(0);
+            asm.aload(1);
+            asm.push(slot);
+            helper("global", "(Lguru/Interpreter;II)Ljava/lang/Object;", constant(name));
+        } else if (depth < scopes.size()) {
+            asm.aload(scopes.get(scopes.size() - 1 - depth) + slot);
+        } else {
+            asm.aload(2);
+            asm.push(depth - scopes.size());
+            asm.push(slot);
+            asm.invoke(INVOKEVIRTUAL, ENVIRONMENT, "getAt", "(II)Ljava/lang/Object;");
+        }
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth == -1 && expr.constant != null) {
+            // compiled in as a literal, until the const is redefined
+            linked.add(expr.slot);
+            return visitLiteralExpr(new Expr.Literal(expr.constant));
+        }
+        load(expr.depth, expr.slot, expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignmentExpr(Expr.Assignment expr) {
+        value(expr.value);
+        asm.op(DUP, 1);
+        if (expr.depth != -1 && expr.depth < scopes.size()) {
+            asm.astore(scopes.get(scopes.size() - 1 - expr.depth) + expr.slot);
+            return null;
+        }
+        int mark = asm.locals();
+        int val = asm.local(1);
+        asm.astore(val);
+        if (expr.depth == -1) {
+            asm.aload(0);
+            asm.aload(1);
+            asm.aload(val);
+            asm.push(expr.slot);
+            helper("assign", "(Lguru/Interpreter;Ljava/lang/Object;II)V", constant(expr.name));
+        } else {
+            asm.aload(2);
+            asm.push(expr.depth - scopes.size());
+            asm.push(expr.slot);
+            asm.aload(val);
+            asm.invoke(INVOKEVIRTUAL, ENVIRONMENT, "assignAt", "(IILjava/lang/Object;)V");
+        }
+        asm.release(mark);
+        return null;
+    }
+
+    @Override
+    public Void visitIfExpr(Expr.If expr) {
+        Label no = new Label(), end = new Label();
+        cond(expr.cond, no, false);
+        value(expr.iftrue);
+        asm.jump(GOTO, end);
+        asm.place(no);
+        if (expr.iffalse == null) asm.op(ACONST_NULL, 1); else value(expr.iffalse);
+        asm.place(end);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileExpr(Expr.While expr) {
+        int mark = asm.locals();
+        int res = asm.local(1);
+        Label top = new Label(), end = new Label();
+        asm.op(ACONST_NULL, 1);
+        asm.astore(res);
+        asm.place(top);
+        cond(expr.cond, end, false);
+        value(expr.body);
+        asm.astore(res);
+        asm.jump(GOTO, top);
+        asm.place(end);
+        asm.aload(res);
+        asm.release(mark);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockExpr(Expr.Block expr) {
+        int mark = asm.locals();
+        if (!expr.flat) scope(expr.size);
+        int last = -1;
+        for (int index = 0; index < expr.stmts.size(); index++) {
+            if (expr.stmts.get(index) instanceof Stmt.Statement) last = index;
+        }
+        int ret = last == expr.stmts.size() - 1 ? -1 : asm.local(1);
+        for (int index = 0; index < expr.stmts.size(); index++) {
+            Stmt stmt = expr.stmts.get(index);
+            if (index == last) {
+                value(((Stmt.Statement) stmt).expression);
+                if (ret != -1) asm.astore(ret);
+            } else {
+                stmt.accept(this);
+            }
+        }
+        if (last == -1) {
+            asm.op(ACONST_NULL, 1);
+        } else if (ret != -1) {
+            asm.aload(ret);
+        }
+        if (expr.flat) release(mark); else unscope(mark);
+        return null;
+    }
+
+    @Override
+    public Void visitWithExpr(Expr.With expr) {
+        int mark = asm.locals();
+        if (!expr.flat) scope(expr.size);
+        for (Stmt.Var stmt : expr.stmts) {
+            stmt.accept(this);
+        }
+        value(expr.body);
+        if (expr.flat) release(mark); else unscope(mark);
+        return null;
+    }
+
+    // the body runs in this frame's locals when the guard holds, and the call is made otherwise
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        Expr.Call call = expr.call;
+        Label other = new Label(), end = new Label();
+        int mark = asm.locals(), value = asm.local(1);
+        value(call.callee instanceof Expr.Get ? ((Expr.Get) call.callee).obj : call.callee);
+        asm.astore(value);
+        asm.aload(0);
+        asm.aload(value);
+        helper("inlined", "(Ljava/lang/Object;I)Z", constant(expr));
+        asm.jump(IFEQ, other);
+        int slot = scopes.get(scopes.size() - 1) + expr.base;
+        if (expr.self) {
+            asm.aload(value);
+            asm.astore(slot++);
+        }
+        for (Expr arg : call.args) {
+            value(arg);
+            asm.astore(slot++);
+        }
+        value(expr.body);
+        asm.jump(GOTO, end);
+        asm.place(other);
+        call(call, value);
+        asm.place(end);
+        asm.release(mark);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        call(expr, -1);
+        return null;
+    }
+
+    // value is the local already holding the callee, or the object of a method call, or -1
+    private void call(Expr.Call expr, int value) {
+        int k = constant(expr);
+        asm.aload(0);
+        if (!expr.tail) asm.aload(1);
+        asm.aload(0);
+        if (expr.callee instanceof Expr.Get) {
+            int mark = asm.locals(), obj = value;
+            if (obj == -1) {
+                obj = asm.local(1);
+                value(((Expr.Get) expr.callee).obj);
+                asm.astore(obj);
+            }
+            asm.aload(obj);
+            helper("method", "(Ljava/lang/Object;I)Lguru/GCallable;", k);
+            asm.op(DUP, 1);
+            asm.aload(obj);
+            asm.push(expr.args.size());
+            asm.invoke(INVOKESTATIC, COMPILED, "args", "(Lguru/GCallable;Ljava/lang/Object;I)[Ljava/lang/Object;");
+            asm.release(mark);
+        } else {
+            if (value == -1) value(expr.callee); else asm.aload(value);
+            helper("callee", "(Ljava/lang/Object;I)Lguru/GCallable;", k);
+            asm.push(expr.args.size());
+            asm.invoke(INVOKESTATIC, COMPILED, "args", "(I)[Ljava/lang/Object;");
+        }
+        int n = expr.args.size();
+        for (int index = 0; index < n; index++) {
+            asm.op(DUP, 1);
+            value(expr.args.get(index));
+            asm.push(n - index);
+            asm.invoke(INVOKESTATIC, COMPILED, "put", "([Ljava/lang/Object;Ljava/lang/Object;I)V");
+        }
+        if (expr.tail) {
+            helper("tail", "(Lguru/GCallable;[Ljava/lang/Object;I)Ljava/lang/Object;", k);
+        } else {
+            helper("call", "(Lguru/Interpreter;Lguru/GCallable;[Ljava/lang/Object;I)Ljava/lang/Object;", k);
+        }
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        Inline inline = scalar(expr.obj);
+        if (inline == null) {
+            asm.aload(0);
+            value(expr.obj);
+            helper("get", "(Ljava/lang/Object;I)Ljava/lang/Object;", constant(expr));
+            return null;
+        }
+        Label slow = new Label(), end = new Label();
+        int field = inline.field(expr.name.lexeme);
+        scalar(expr.obj, slow);
+        if (field != -1) {
+            Label bound = new Label();
+            asm.aload(inline.base + field);
+            asm.invoke(INVOKESTATIC, COMPILED, "plain", "(Ljava/lang/Object;)Z");
+            asm.jump(IFEQ, bound);
+            asm.aload(inline.base + field);
+            asm.invoke(INVOKESTATIC, COMPILED, "field", "(Ljava/lang/Object;)Ljava/lang/Object;");
+            asm.jump(GOTO, end);
+            asm.place(bound);
+        }
+        materialize(expr.obj, inline);
+        asm.place(slow);
+        asm.aload(0);
+        value(expr.obj);
+        helper("get", "(Ljava/lang/Object;I)Ljava/lang/Object;", constant(expr));
+        asm.place(end);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        Inline inline = scalar(expr.obj);
+        if (inline == null) {
+            asm.aload(0);
+            value(expr.value);
+            value(expr.obj);
+            helper("set", "(Ljava/lang/Object;Ljava/lang/Object;I)Ljava/lang/Object;", constant(expr));
+            return null;
+        }
+        Label slow = new Label(), end = new Label();
+        int field = inline.field(expr.name.lexeme);
+        value(expr.value);
+        scalar(expr.obj, slow);
+        if (field != -1) {
+            asm.op(DUP, 1);
+            asm.astore(inline.base + field);
+            asm.jump(GOTO, end);
+        } else {
+            materialize(expr.obj, inline);
+        }
+        asm.place(slow);
+        asm.aload(0);
+        asm.op(SWAP, 0);
+        value(expr.obj);
+        helper("set", "(Ljava/lang/Object;Ljava/lang/Object;I)Ljava/lang/Object;", constant(expr));
+        asm.place(end);
+        return null;
+    }
+
+    // the inlined object a get or set goes to, if its fields are in locals
+    private Inline scalar(Expr obj) {
+        if (!(obj instanceof Expr.Variable)) return null;
+        Expr.Variable var = (Expr.Variable) obj;
+        if (var.depth == -1 || var.depth >= scopes.size()) return null;
+        return inlines.get(scopes.get(scopes.size() - 1 - var.depth) + var.slot);
+    }
+
+    // jumps to real unless the object is still in locals
+    private void scalar(Expr obj, Label real) {
+        value(obj);
+        asm.field(GETSTATIC, COMPILED, "SCALAR", "Ljava/lang/Object;");
+        asm.jump(IF_ACMPNE, real);
+    }
+
+    // builds the object from its fields, for a use that needs the real thing
+    private void materialize(Expr obj, Inline inline) {
+        Expr.Variable var = (Expr.Variable) obj;
+        int n = inline.fields.length;
+        asm.aload(0);
+        asm.push(n);
+        asm.invoke(INVOKESTATIC, COMPILED, "args", "(I)[Ljava/lang/Object;");
+        for (int index = 0; index < n; index++) {
+            asm.op(DUP, 1);
+            asm.aload(inline.base + index);
+            asm.push(n - index);
+            asm.invoke(INVOKESTATIC, COMPILED, "put", "([Ljava/lang/Object;Ljava/lang/Object;I)V");
+        }
+        helper("materialize", "([Ljava/lang/Object;I)Ljava/lang/Object;", inline.k);
+        asm.astore(scopes.get(scopes.size() - 1 - var.depth) + var.slot);
+    }
+
+    @Override
+    public Void visitLambdaExpr(Expr.Lambda expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitAnonExpr(Expr.Anon expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitExtendAnonExpr(Expr.ExtendAnon expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitStatementStmt(Stmt.Statement stmt) {
+        if (stmt.expression instanceof Expr.Set) {
+            // the value is dropped, so a computed number can go into the field unboxed
+            Expr.Set set = (Expr.Set) stmt.expression;
+            if (doubles(set.value) && !(set.value instanceof Expr.Literal) && scalar(set.obj) == null) {
+                asm.aload(0);
+                number(set.value, -1);
+                value(set.obj);
+                helper("set", "(DLjava/lang/Object;I)V", constant(set));
+                return null;
+            }
+            // the same for a Double site, whose value may turn out to be spilled after all
+            if (isReal(set.value) && simple(set.obj) && scalar(set.obj) == null) {
+                int k = constant(set);
+                int mark = asm.locals();
+                int value = asm.local(2);
+                Label spilled = new Label(), end = new Label();
+                real(set.value);
+                asm.dstore(value);
+                asm.dload(value);
+                asm.dload(value);
+                asm.op(DCMPL, -3);
+                asm.jump(IFNE, spilled);
+                asm.aload(0);
+                asm.dload(value);
+                value(set.obj);
+                helper("set", "(DLjava/lang/Object;I)V", k);
+                asm.jump(GOTO, end);
+                asm.place(spilled);
+                asm.aload(0);
+                spill();
+                value(set.obj);
+                helper("set", "(Ljava/lang/Object;Ljava/lang/Object;I)Ljava/lang/Object;", k);
+                asm.op(POP, -1);
+                asm.place(end);
+                asm.release(mark);
+                return null;
+            }
+        }
+        value(stmt.expression);
+        asm.op(POP, -1);
+        return null;
+    }
+
+    private void define(int slot, Expr expression) {
+        if (slot == -1) throw new Unsupported();
+        if (expression == null) asm.op(ACONST_NULL, 1); else value(expression);
+        asm.astore(scopes.get(scopes.size() - 1) + slot);
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        Scalar scalar = stmt.scalar ? constructor((Expr.Call) stmt.expression) : null;
+        if (scalar == null) {
+            define(stmt.slot, stmt.expression);
+            return null;
+        }
+        // runs the constructor here with the fields in locals, unless the class has changed since
+        Expr.Call call = (Expr.Call) stmt.expression;
+        Interpreter.Function ctor = (Interpreter.Function) scalar.constructor;
+        int k = constant(scalar), n = scalar.fields.length;
+        int obj = scopes.get(scopes.size() - 1) + stmt.slot;
+        int base = asm.local(n);
+        for (int index = 0; index < n; index++) {
+            asm.op(ACONST_NULL, 1);
+            asm.astore(base + index);
+        }
+        Label real = new Label(), end = new Label();
+        asm.aload(0);
+        value(call.callee);
+        helper("scalar", "(Ljava/lang/Object;I)Z", k);
+        asm.jump(IFEQ, real);
+        for (Expr arg : call.args) value(arg);
+        int mark = asm.locals();
+        int params = scope(ctor.size);
+        for (int index = call.args.size(); index > 0; index--) asm.astore(params + index);
+        boolean block = ctor.body instanceof Expr.Block && !((Expr.Block) ctor.body).flat;
+        if (block) scope(0);
+        for (Expr.Set set : sets(ctor.body)) {
+            value(set.value);
+            asm.astore(base + Arrays.asList(scalar.fields).indexOf(set.name.lexeme));
+        }
+        if (block) scopes.remove(scopes.size() - 1);
+        unscope(mark);
+        asm.field(GETSTATIC, COMPILED, "SCALAR", "Ljava/lang/Object;");
+        asm.astore(obj);
+        asm.jump(GOTO, end);
+        asm.place(real);
+        value(call);
+        asm.astore(obj);
+        asm.place(end);
+        inlines.put(obj, new Inline(k, base, scalar.fields));
+        return null;
+    }
+
+    // the class a var is initialized with, if its constructor only sets fields from its arguments
+    private Scalar constructor(Expr.Call call) {
+        Expr.Variable callee = (Expr.Variable) call.callee;
+        if (callee.depth != -1 || call.tail) return null;
+        Object klass;
+        try {
+            klass = interpreter.globals.get(callee.slot, callee.name);
+        } catch (Interpreter.RE e) {
+            return null;
+        }
+        if (!(klass instanceof GClass)) return null;
+        Object ctor = ((GClass) klass).method("new");
+        if (!(ctor instanceof Interpreter.Function)) return null;
+        Interpreter.Function f = (Interpreter.Function) ctor;
+        if (f.isStatic() || f.params.size() != call.args.size() + 1) return null;
+        List<Expr.Set> sets = sets(f.body);
+        if (sets == null) return null;
+        List<String> fields = new ArrayList<>();
+        for (Expr.Set set : sets) {
+            if (!fields.contains(set.name.lexeme)) fields.add(set.name.lexeme);
+        }
+        return new Scalar((GClass) klass, ctor, fields.toArray(new String[0]));
+    }
+
+    // the sets a constructor body consists of, or null if it does anything else
+    private static List<Expr.Set> sets(Expr body) {
+        List<Stmt> stmts;
+        int depth;
+        if (body instanceof Expr.Block) {
+            stmts = ((Expr.Block) body).stmts;
+            depth = ((Expr.Block) body).flat ? 0 : 1;
+        } else if (body instanceof Expr.Set) {
+            stmts = List.of(new Stmt.Statement(body));
+            depth = 0;
+        } else {
+            return null;
+        }
+        List<Expr.Set> sets = new ArrayList<>();
+        for (Stmt stmt : stmts) {
+            if (!(stmt instanceof Stmt.Statement) || !(((Stmt.Statement) stmt).expression instanceof Expr.Set)) return null;
+            Expr.Set set = (Expr.Set) ((Stmt.Statement) stmt).expression;
+            if (!(set.obj instanceof Expr.Variable)) return null;
+            Expr.Variable me = (Expr.Variable) set.obj;
+            if (me.depth != depth || me.slot != 0 || !pure(set.value, depth)) return null;
+            sets.add(set);
+        }
+        return sets;
+    }
+
+    // reads only the constructor's arguments and globals, never the object being made
+    private static boolean pure(Expr expr, int depth) {
+        if (expr instanceof Expr.Literal) return true;
+        if (expr instanceof Expr.Grouping) return pure(((Expr.Grouping) expr).expression, depth);
+        if (expr instanceof Expr.Unary) return pure(((Expr.Unary) expr).right, depth);
+        if (expr instanceof Expr.Binary) return pure(((Expr.Binary) expr).left, depth) && pure(((Expr.Binary) expr).right, depth);
+        if (expr instanceof Expr.Logika) return pure(((Expr.Logika) expr).left, depth) && pure(((Expr.Logika) expr).right, depth);
+        if (expr instanceof Expr.Get) return pure(((Expr.Get) expr).obj, depth);
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable var = (Expr.Variable) expr;
+            return var.depth == -1 || var.depth == depth && var.slot != 0;
+        }
+        return false;
+    }
+
+    @Override
+    public Void visitConstStmt(Stmt.Const stmt) {
+        define(stmt.slot, stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        value(stmt.expression);
+        asm.invoke(INVOKESTATIC, COMPILED, "print", "(Ljava/lang/Object;)V");
+        return null;
+    }
+
+    @Override
+    public Void visitFunStmt(Stmt.Fun stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitExtendClassStmt(Stmt.ExtendClass stmt) {
+        throw new Unsupported();
+    }
+}
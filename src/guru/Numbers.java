@@ -0,0 +1,94 @@
+package guru;
+
+/*
+ * Arithmetic over the two number representations. Integral literals are Longs and
+ * stay Longs as long as the result is exact; anything else, an overflow included,
+ * is carried on as a Double. Both print the same way, so the split never shows.
+ */
+final class Numbers {
+    private Numbers() {}
+
+    static boolean isNumber(Object o) {
+        return o instanceof Long || o instanceof Double;
+    }
+
+    // callers have checked isNumber
+    static double toDouble(Object o) {
+        return o instanceof Long ? (double) (Long) o : (Double) o;
+    }
+
+    static Object add(long a, long b) {
+        long r = a + b;
+        if (((a ^ r) & (b ^ r)) < 0) return (double) a + (double) b;
+        return r;
+    }
+
+    static Object subtract(long a, long b) {
+        long r = a - b;
+        if (((a ^ b) & (a ^ r)) < 0) return (double) a - (double) b;
+        return r;
+    }
+
+    static Object multiply(long a, long b) {
+        long r = a * b;
+        long high = Math.multiplyHigh(a, b);
+        if (high != r >> 63 || r == 0 && (a < 0 || b < 0)) return (double) a * (double) b;
+        return r;
+    }
+
+    static Object divide(long a, long b) {
+        if (b == 0 || a % b != 0 || a == 0 && b < 0 || a == Long.MIN_VALUE && b == -1) return (double) a / (double) b;
+        return a / b;
+    }
+
+    static Object negate(long a) {
+        if (a == 0 || a == Long.MIN_VALUE) return -(double) a;
+        return -a;
+    }
+
+    // both operands are numbers
+    static Object add(Object l, Object r) {
+        if (l instanceof Long && r instanceof Long) return add((long) (Long) l, (long) (Long) r);
+        return toDouble(l) + toDouble(r);
+    }
+
+    static Object subtract(Object l, Object r) {
+        if (l instanceof Long && r instanceof Long) return subtract((long) (Long) l, (long) (Long) r);
+        return toDouble(l) - toDouble(r);
+    }
+
+    static Object multiply(Object l, Object r) {
+        if (l instanceof Long && r instanceof Long) return multiply((long) (Long) l, (long) (Long) r);
+        return toDouble(l) * toDouble(r);
+    }
+
+    static Object divide(Object l, Object r) {
+        if (l instanceof Long && r instanceof Long) return divide((long) (Long) l, (long) (Long) r);
+        return toDouble(l) / toDouble(r);
+    }
+
+    static Object negate(Object o) {
+        if (o instanceof Long) return negate((long) (Long) o);
+        return -(Double) o;
+    }
+
+    static boolean less(Object l, Object r) {
+        if (l instanceof Long && r instanceof Long) return (Long) l < (Long) r;
+        return toDouble(l) < toDouble(r);
+    }
+
+    static boolean lessEqual(Object l, Object r) {
+        if (l instanceof Long && r instanceof Long) return (Long) l <= (Long) r;
+        return toDouble(l) <= toDouble(r);
+    }
+
+    // as Doubles compare: -0.0 is not 0, and NaN is itself
+    static boolean equal(Object l, Object r) {
+        if (l instanceof Long && r instanceof Long) return (long) (Long) l == (Long) r;
+        return Double.valueOf(toDouble(l)).equals(toDouble(r));
+    }
+
+    static String stringify(Object o) {
+        return o instanceof Long ? Double.toString((double) (Long) o) : String.valueOf(o);
+    }
+}
@@ -0,0 +1,73 @@
+package guru;
+
+final class OpCode {
+    static final byte CONSTANT = 0;
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+    static final byte GET_LOCAL = 5;
+    static final byte SET_LOCAL = 6;
+    static final byte GET_UPVALUE = 7;
+    static final byte SET_UPVALUE = 8;
+    static final byte GET_GLOBAL = 9;
+    static final byte SET_GLOBAL = 10;
+    static final byte DEFINE_GLOBAL = 11;
+    static final byte DEFINE_CONST = 12;
+    static final byte GET_PROPERTY = 13;
+    static final byte SET_PROPERTY = 14;
+    static final byte EQUAL = 15;
+    static final byte NOT_EQUAL = 16;
+    static final byte GREATER = 17;
+    static final byte GREATER_EQUAL = 18;
+    static final byte LESS = 19;
+    static final byte LESS_EQUAL = 20;
+    static final byte ADD = 21;
+    static final byte SUBTRACT = 22;
+    static final byte MULTIPLY = 23;
+    static final byte DIVIDE = 24;
+    static final byte NOT = 25;
+    static final byte NEGATE = 26;
+    static final byte PRINT = 27;
+    static final byte JUMP = 28;
+    static final byte JUMP_IF_FALSE = 29;
+    static final byte JUMP_IF_TRUE = 30;
+    static final byte POP_JUMP_IF_FALSE = 31;
+    static final byte LOOP = 32;
+    static final byte CALL = 33;
+    static final byte INVOKE = 34;
+    static final byte CLOSURE = 35;
+    static final byte CLOSE_SCOPE = 36;
+    static final byte RETURN = 37;
+    static final byte CLASS = 38;
+    static final byte METHOD = 39;
+    static final byte INHERIT = 40;
+
+    // operand forms of EQUAL..DIVIDE: _LL reads two locals, _LK a local and a constant
+    static final byte EQUAL_LL = 41;
+    static final byte NOT_EQUAL_LL = 42;
+    static final byte GREATER_LL = 43;
+    static final byte GREATER_EQUAL_LL = 44;
+    static final byte LESS_LL = 45;
+    static final byte LESS_EQUAL_LL = 46;
+    static final byte ADD_LL = 47;
+    static final byte SUBTRACT_LL = 48;
+    static final byte MULTIPLY_LL = 49;
+    static final byte DIVIDE_LL = 50;
+    static final byte EQUAL_LK = 51;
+    static final byte NOT_EQUAL_LK = 52;
+    static final byte GREATER_LK = 53;
+    static final byte GREATER_EQUAL_LK = 54;
+    static final byte LESS_LK = 55;
+    static final byte LESS_EQUAL_LK = 56;
+    static final byte ADD_LK = 57;
+    static final byte SUBTRACT_LK = 58;
+    static final byte MULTIPLY_LK = 59;
+    static final byte DIVIDE_LK = 60;
+    static final byte SET_LOCAL_POP = 61;
+    // CALL and INVOKE in tail position: a closure of matching arity takes over the caller's frame
+    static final byte TAIL_CALL = 62;
+    static final byte TAIL_INVOKE = 63;
+
+    private OpCode() {}
+}
@@ -0,0 +1,32 @@
+package guru;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/*
+ * The passes run over a script once it is resolved and before any engine sees it, each
+ * on the tree the one before it left. --no-optimize skips them all, to debug against
+ * the tree as written. Passes that keep values in slots they add to frames only run
+ * for the engines that use the resolver's slots; the bytecode compiler finds locals
+ * by name.
+ */
+final class Optimizer {
+    private Optimizer() {}
+
+    private static final List<Supplier<Rewriter>> PASSES = List.of(Folder::new);
+    private static final List<Supplier<Rewriter>> SLOTTED = List.of(Inliner::new, Hoister::new, Reuser::new);
+
+    static boolean enabled = true;
+
+    static List<Stmt> optimize(List<Stmt> stmts, boolean slots) {
+        if (!enabled) return stmts;
+        for (Supplier<Rewriter> pass : PASSES) {
+            stmts = pass.get().program(stmts);
+        }
+        if (!slots) return stmts;
+        for (Supplier<Rewriter> pass : SLOTTED) {
+            stmts = pass.get().program(stmts);
+        }
+        return stmts;
+    }
+}
@@ -0,0 +1,143 @@
+package guru;
+
+/*
+ * Inline cache of one property get or set site, keyed on the receiver's shape and
+ * class. A get entry holds the field's slot, or for a method the method itself; a
+ * set entry holds the slot and, when the set adds the field, the shape it moves
+ * the instance to. Shapes never change, so field entries stay good; a method entry
+ * is looked up again once its class, or one it inherits from, changes its methods. A site that sees more than
+ * WAYS layouts goes megamorphic and does the full lookup from then on.
+ */
+final class PropertyCache {
+    private static final int WAYS = 4;
+
+    private final Shape[] shapes = new Shape[WAYS];
+    private final GClass[] classes = new GClass[WAYS];
+    // -1 for a method entry
+    private final int[] slots = new int[WAYS];
+    private final Object[] methods = new Object[WAYS];
+    private final Shape[] next = new Shape[WAYS];
+    // the class's version when a method entry was looked up
+    private final int[] versions = new int[WAYS];
+    private int size = 0;
+    private boolean megamorphic = false;
+
+    Object get(Object obj, Token name) {
+        if (megamorphic || !(obj instanceof GInstance)) return Interpreter.getProperty(obj, name);
+        GInstance inst = (GInstance) obj;
+        return Interpreter.property(inst, name, lookup(inst, name));
+    }
+
+    // the property as stored, methods unbound
+    Object lookup(GInstance inst, Token name) {
+        Object value = find(inst, name.lexeme);
+        return value == null ? Parser.Void.VOID : value;
+    }
+
+    private Object find(GInstance inst, String name) {
+        Shape shape = inst.shape;
+        GClass klass = inst.klass;
+        for (int i = 0; i < size; i++) {
+            if (shapes[i] == shape && classes[i] == klass) {
+                int slot = slots[i];
+                if (slot >= 0) return inst.read(slot);
+                int version = klass.version();
+                if (versions[i] != version) {
+                    methods[i] = inst.lookup(name);
+                    versions[i] = version;
+                }
+                return methods[i];
+            }
+        }
+        int slot = shape.slot(name);
+        Object value = inst.lookup(name);
+        if (size == WAYS) {
+            megamorphic = true;
+        } else {
+            shapes[size] = shape;
+            classes[size] = klass;
+            slots[size] = slot;
+            methods[size] = slot < 0 ? value : null;
+            versions[size] = slot < 0 ? klass.version() : 0;
+            size++;
+        }
+        return value;
+    }
+
+    // the property as a number for arithmetic, read unboxed from a number field
+    double number(Object obj, Token name, Token operator) {
+        if (!megamorphic && obj instanceof GInstance) {
+            GInstance inst = (GInstance) obj;
+            Shape shape = inst.shape;
+            for (int i = 0; i < size; i++) {
+                if (shapes[i] == shape && classes[i] == inst.klass) {
+                    int slot = slots[i];
+                    if (slot >= 0 && shape.doubles[slot]) return inst.doubles[slot];
+                    break;
+                }
+            }
+        }
+        Object value = get(obj, name);
+        if (value instanceof Double) return (Double) value;
+        if (value instanceof Long) return (Long) value;
+        throw new Interpreter.RE("Operand must be a number.", operator);
+    }
+
+    // the property unboxed when it is a Double in a number field; NaN for anything else
+    double real(Object obj, Token name) {
+        if (!megamorphic && obj instanceof GInstance) {
+            GInstance inst = (GInstance) obj;
+            Shape shape = inst.shape;
+            for (int i = 0; i < size; i++) {
+                if (shapes[i] == shape && classes[i] == inst.klass) {
+                    int slot = slots[i];
+                    if (slot >= 0 && shape.doubles[slot] && !(inst.values[slot] instanceof Long)) return inst.doubles[slot];
+                    break;
+                }
+            }
+        }
+        return Double.NaN;
+    }
+
+    // a set whose value is a number, stored unboxed when the field already holds numbers
+    void set(Object obj, Token name, double val) {
+        if (!megamorphic && obj instanceof GInstance) {
+            GInstance inst = (GInstance) obj;
+            Shape shape = inst.shape;
+            for (int i = 0; i < size; i++) {
+                if (shapes[i] == shape) {
+                    if (next[i] == null && shape.doubles[slots[i]]) {
+                        inst.write(slots[i], val);
+                        return;
+                    }
+                    break;
+                }
+            }
+        }
+        set(obj, name, (Object) val);
+    }
+
+    Object set(Object obj, Token name, Object val) {
+        if (megamorphic || !(obj instanceof GInstance) || ((GInstance) obj).klass == GInstance.voidclass)
+            return Interpreter.setProperty(obj, name, val);
+        GInstance inst = (GInstance) obj;
+        Shape shape = inst.shape;
+        for (int i = 0; i < size; i++) {
+            if (shapes[i] == shape) {
+                if (next[i] != null) inst.extend(next[i]);
+                inst.write(slots[i], val);
+                return val;
+            }
+        }
+        inst.put(name.lexeme, val);
+        if (size == WAYS) {
+            megamorphic = true;
+        } else {
+            shapes[size] = shape;
+            slots[size] = inst.shape.slot(name.lexeme);
+            next[size] = inst.shape != shape ? inst.shape : null;
+            size++;
+        }
+        return val;
+    }
+}
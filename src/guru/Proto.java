@@ -0,0 +1,20 @@
+package guru;
+
+class Proto {
+    final String name;
+    final int arity;
+    final boolean isStatic;
+    final Chunk chunk = new Chunk();
+    int upvalues = 0;
+
+    Proto(String name, int arity, boolean isStatic) {
+        this.name = name;
+        this.arity = arity;
+        this.isStatic = isStatic;
+    }
+
+    @Override
+    public String toString() {
+        return name == null ? "function anon" : "function " + name;
+    }
+}
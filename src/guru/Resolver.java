@@ -4,6 +4,8 @@ import static guru.Expr.*;
 import static guru.Stmt.*;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
@@ -16,11 +18,40 @@ import guru.Stmt.ExtendClass;
 import guru.Stmt.Fun;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private static class Scope {
+        final Map<String, Boolean> defined = new HashMap<>();
+        final Map<String, Integer> slots = new HashMap<>();
+        // vars holding a fresh object that so far is only used for its fields
+        final Map<String, Var> scalars = new HashMap<>();
+        // what declared each name: a Var, Fun or Class, or the slot of a parameter
+        final Map<String, Object> decls = new HashMap<>();
+        // a name captured while its value is not stored yet, or assigned, needs a cell if captured
+        final HashSet<String> captured = new HashSet<>(), assigned = new HashSet<>(), pending = new HashSet<>();
+        // null unless this is the scope of a function
+        final Captures captures;
+        // the scope whose environment holds the slots: this one, or for a block the one it is in
+        final Scope frame;
+        // the frame's first free slot when this scope was opened
+        final int base;
+        // of a frame, the next free slot and the most slots in use at once
+        int next, size;
+
+        Scope(Captures captures, Scope frame) {
+            this.captures = captures;
+            this.frame = frame == null ? this : frame;
+            this.base = this.frame.next;
+        }
+    }
 
-    Resolver(Interpreter i) {
-        this.interpreter = i;
+    private final Stack<Scope> scopes = new Stack<>();
+    private final Globals globals;
+
+    Resolver() {
+        this(new Globals());
+    }
+
+    Resolver(Globals globals) {
+        this.globals = globals;
     }
 
     @Override
@@ -32,37 +63,107 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitVarStmt(Var stmt) {
 
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name, stmt);
+        if (stmt.slot == -1) stmt.global = globals.slot(stmt.name.lexeme);
+        pending(stmt.name, true);
         if (stmt.expression != null) stmt.expression.accept(this);
+        pending(stmt.name, false);
         define(stmt.name);
+        stmt.scalar = stmt.slot != -1 && stmt.expression instanceof Call && ((Call) stmt.expression).callee instanceof Variable;
+        if (stmt.scalar) scopes.peek().scalars.put(stmt.name.lexeme, stmt);
 
         return null;
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().defined.put(name.lexeme, true);
     }
-    private void declare(Token name) {
-        if (scopes.isEmpty()) return;
-        if (scopes.peek().containsKey(name.lexeme)) {
+    private int declare(Token name, Object decl) {
+        if (scopes.isEmpty()) return -1;
+        Scope scope = scopes.peek();
+        if (scope.defined.containsKey(name.lexeme)) {
             Guru.error(name, "Already a variable with this name in this scope.");
+            return scope.slots.get(name.lexeme);
+        }
+        Scope frame = scope.frame;
+        int slot = frame.next++;
+        frame.size = Math.max(frame.size, frame.next);
+        scope.defined.put(name.lexeme, false);
+        scope.slots.put(name.lexeme, slot);
+        scope.decls.put(name.lexeme, decl);
+        return slot;
+    }
+
+    private int function(List<Token> args, Expr body, Captures captures) {
+        scopes.push(new Scope(captures, null));
+        for (Token param: args) {
+            declare(param, scopes.peek().slots.size());
+            define(param);
+        }
+        body.accept(this);
+        tail(body);
+        return pop().size;
+    }
+
+    // a block keeps its slots in the frame it is in, which makes reentering it free. Closures
+    // copy what they capture, or share a cell made by each declaration, so the slots can be
+    // reused once it is left. Only a block outside any function has to have a frame of its own
+    private Scope block() {
+        Scope scope = new Scope(null, scopes.isEmpty() ? null : scopes.peek().frame);
+        scopes.push(scope);
+        return scope;
+    }
+
+    // whether a block just popped needs no environment
+    private static boolean flat(Scope scope) {
+        return scope.frame != scope || scope.size == 0;
+    }
+
+    // the variables of a scope that are captured and also assigned or captured too early go in cells
+    private Scope pop() {
+        Scope scope = scopes.pop();
+        if (scope.frame != scope) scope.frame.next = scope.base;
+        for (String name : scope.captured) {
+            if (!scope.assigned.contains(name)) continue;
+            Object decl = scope.decls.get(name);
+            if (decl instanceof Var) ((Var) decl).cell = true;
+            else if (decl instanceof Fun) ((Fun) decl).cell = true;
+            else if (decl instanceof Class) ((Class) decl).cell = true;
+            else if (decl instanceof Integer) scope.captures.cells = Captures.append(scope.captures.cells, (Integer) decl);
+        }
+        return scope;
+    }
+
+    // marks the calls whose result the function returns as is, so they can reuse its frame
+    private static void tail(Expr expr) {
+        if (expr instanceof Call) {
+            ((Call) expr).tail = true;
+        } else if (expr instanceof Grouping) {
+            tail(((Grouping) expr).expression);
+        } else if (expr instanceof If) {
+            tail(((If) expr).iftrue);
+            if (((If) expr).iffalse != null) tail(((If) expr).iffalse);
+        } else if (expr instanceof With) {
+            tail(((With) expr).body);
+        } else if (expr instanceof Block) {
+            Block block = (Block) expr;
+            if (block.result != -1 && block.result == block.stmts.size() - 1)
+                tail(((Stmt.Statement) block.stmts.get(block.result)).expression);
         }
-        scopes.peek().put(name.lexeme, false);
     }
 
     @Override
     public Void visitFunStmt(Fun stmt) {
 
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name, stmt);
+        if (stmt.slot == -1) stmt.global = globals.slot(stmt.name.lexeme);
         define(stmt.name);
-        scopes.push(new HashMap<>());
-        for (Token param: stmt.args) {
-            declare(param);
-            define(param);
-        }
-        stmt.expression.accept(this);
-        scopes.pop();
+        // the function is made before it is stored, so it cannot copy itself
+        pending(stmt.name, true);
+        stmt.captures = new Captures();
+        stmt.size = function(stmt.args, stmt.expression, stmt.captures);
+        pending(stmt.name, false);
 
         return null;
     }
@@ -75,13 +176,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitLambdaExpr(Lambda expr) {
-        scopes.push(new HashMap<>());
-        for (Token param: expr.args) {
-            declare(param);
-            define(param);
-        }
-        expr.expression.accept(this);
-        scopes.pop();
+        expr.captures = new Captures();
+        expr.size = function(expr.args, expr.expression, expr.captures);
         return null;
     }
 
@@ -101,7 +197,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitCallExpr(Call expr) {
-        expr.callee.accept(this);
+        // a method call hands the object over as its receiver
+        if (expr.callee instanceof Get) ((Get) expr.callee).obj.accept(this); else expr.callee.accept(this);
         for (Expr arg : expr.args) arg.accept(this);
         return null;
     }
@@ -115,10 +212,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitWithExpr(With expr) {
-        scopes.push(new HashMap<>());
+        block();
         for (Stmt decl: expr.stmts) decl.accept(this);
         expr.body.accept(this);
-        scopes.pop();
+        Scope scope = pop();
+        expr.size = scope.size;
+        expr.flat = flat(scope);
         return null;
     }
 
@@ -139,13 +238,17 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitBlockExpr(Block expr) {
 
-        scopes.push(new HashMap<>());
+        block();
         
-        for (Stmt stmt : expr.stmts) {
+        for (int i = 0; i < expr.stmts.size(); i++) {
+            Stmt stmt = expr.stmts.get(i);
+            if (stmt instanceof Stmt.Statement) expr.result = i;
             stmt.accept(this);
         }
 
-        scopes.pop();
+        Scope scope = pop();
+        expr.size = scope.size;
+        expr.flat = flat(scope);
 
         return null;
     }
@@ -154,11 +257,22 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitAssignmentExpr(Assignment expr) {
 
         expr.value.accept(this);
-        resolveLocal(expr, expr.name);
+        int[] at = resolve(expr.name);
+        expr.depth = at == null ? -1 : at[0];
+        expr.slot = at == null ? globals.slot(expr.name.lexeme) : at[1];
+        int owner = owner(expr.name.lexeme, scopes.size() - 1);
+        if (owner != -1) scopes.get(owner).assigned.add(expr.name.lexeme);
+        escape(expr.name);
 
         return null;
     }
 
+    // made by the optimizer, after resolution
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        return null;
+    }
+
     @Override
     public Void visitLiteralExpr(Literal expr) {
         return null;
@@ -175,49 +289,120 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         expr.right.accept(this);
         return null;
     }
-    public Void resolveLocal(Expr expr, Token name) {
-        if (!scopes.isEmpty() && scopes.peek().get(name.lexeme) == Boolean.FALSE) {
+    // depth and slot of a local as seen from the innermost scope, or null for a global
+    private int[] resolve(Token name) {
+        if (!scopes.isEmpty() && scopes.peek().defined.get(name.lexeme) == Boolean.FALSE) {
             Guru.error(name, "cant read local var in its own initializer");
         }
+        return resolve(name.lexeme, scopes.size() - 1);
+    }
 
-        for (int i = scopes.size() - 1; i>=0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return null;
-            }
+    // a variable of an enclosing function is captured by each function in between,
+    // and is found in the scope just past the innermost one's own
+    private int[] resolve(String name, int top) {
+        int owner = owner(name, top);
+        if (owner == -1) return null;
+        int function = top;
+        while (function > owner && scopes.get(function).captures == null) function--;
+        if (function == owner) return new int[] {distance(top, owner), scopes.get(owner).slots.get(name)};
+        Captures captures = scopes.get(function).captures;
+        int index = captures.names.indexOf(name);
+        if (index == -1) {
+            int[] from = resolve(name, function - 1);
+            index = captures.add(name, from[0], from[1]);
+            Scope scope = scopes.get(owner);
+            scope.captured.add(name);
+            if (scope.pending.contains(name)) scope.assigned.add(name);
         }
-        return null;
+        return new int[] {distance(top, function) + 1, index};
+    }
+
+    // the environments from the scope at top out to the one at owner
+    private int distance(int top, int owner) {
+        int distance = 0;
+        for (int i = top; i > owner; i--) {
+            if (scopes.get(i).frame == scopes.get(i)) distance++;
+        }
+        return distance;
+    }
+
+    // index of the scope declaring name, or -1
+    private int owner(String name, int top) {
+        for (int i = top; i >= 0; i--) {
+            if (scopes.get(i).slots.containsKey(name)) return i;
+        }
+        return -1;
+    }
+
+    private void pending(Token name, boolean pending) {
+        if (scopes.isEmpty()) return;
+        if (pending) scopes.peek().pending.add(name.lexeme); else scopes.peek().pending.remove(name.lexeme);
     }
+
     @Override
     public Void visitVariableExpr(Variable expr) {
-        resolveLocal(expr, expr.name);
+        field(expr);
+        escape(expr.name);
         return null;
     }
 
+    // a variable used only as the object of a get or set, which does not let the object escape
+    private void field(Variable expr) {
+        int[] at = resolve(expr.name);
+        expr.depth = at == null ? -1 : at[0];
+        if (at == null) {
+            expr.slot = globals.slot(expr.name.lexeme);
+            expr.constant = globals.inline(expr.slot, expr);
+            return;
+        }
+        expr.slot = at[1];
+        // captured by a function the object outlives the frame
+        for (int i = owner(expr.name.lexeme, scopes.size() - 1) + 1; i < scopes.size(); i++) {
+            if (scopes.get(i).captures != null) escape(expr.name);
+        }
+    }
+
+    private void escape(Token name) {
+        int owner = owner(name.lexeme, scopes.size() - 1);
+        if (owner == -1) return;
+        Var var = scopes.get(owner).scalars.remove(name.lexeme);
+        if (var != null) var.scalar = false;
+    }
+
+    private void methods(List<Stmt.Fun> methods) {
+        for (Stmt.Fun f : methods) {
+            f.captures = new Captures();
+            f.size = function(f.args, f.expression, f.captures);
+        }
+    }
+
     @Override
     public Void visitClassStmt(Class stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name, stmt);
+        if (stmt.slot == -1) stmt.global = globals.slot(stmt.name.lexeme);
         define(stmt.name);
-        for (Stmt.Fun f : stmt.methods) f.accept(this);
+        pending(stmt.name, true);
+        methods(stmt.methods);
+        pending(stmt.name, false);
         return null;
     }
 
     @Override
     public Void visitAnonExpr(Anon expr) {
-        for (Stmt.Fun f : expr.methods) f.accept(this);
+        methods(expr.methods);
         return null;
     }
 
     @Override
     public Void visitGetExpr(Expr.Get expr) {
-        expr.obj.accept(this);
+        if (expr.obj instanceof Variable) field((Variable) expr.obj); else expr.obj.accept(this);
         return null;
     }
 
     @Override
     public Void visitSetExpr(Set expr) {
 
-        expr.obj.accept(this);
+        if (expr.obj instanceof Variable) field((Variable) expr.obj); else expr.obj.accept(this);
         expr.value.accept(this);
 
         return null;
@@ -225,21 +410,31 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitConstStmt(Const stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name, stmt);
         stmt.expression.accept(this);
         define(stmt.name);
+        if (stmt.slot == -1) {
+            stmt.global = globals.slot(stmt.name.lexeme);
+            globals.link(stmt.global, stmt.expression instanceof Literal ? ((Literal) stmt.expression).value : null);
+        }
 
         return null;
     }
 
     @Override
     public Void visitExtendClassStmt(ExtendClass stmt) {
+        int[] at = resolve(stmt.father);
+        stmt.depth = at == null ? -1 : at[0];
+        stmt.slot = at == null ? globals.slot(stmt.father.lexeme) : at[1];
         stmt.def.accept(this);
         return null;
     }
 
     @Override
     public Void visitExtendAnonExpr(ExtendAnon expr) {
+        int[] at = resolve(expr.father);
+        expr.depth = at == null ? -1 : at[0];
+        expr.slot = at == null ? globals.slot(expr.father.lexeme) : at[1];
         expr.def.accept(this);
 
         return null;
@@ -0,0 +1,242 @@
+package guru;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Computes an expression once where straight-line code computes it again with nothing it
+ * reads changed in between: the first one stores its value in a slot, the others read it.
+ * What a branch, a loop body or an inlined call computes is not reused after it, and each
+ * frame starts afresh. The first walk over the script finds which expressions repeat; the
+ * second goes the same way, meets them in the same order, and rewrites them.
+ */
+class Reuser extends Rewriter {
+    // an expression computed first at one point and reused at others
+    private static final class Group {
+        final Expr expr;
+        int uses, slot;
+
+        Group(Expr expr) {
+            this.expr = expr;
+        }
+    }
+
+    private boolean rewriting;
+    // the group of each expression met that could be reused, in order, and which came first
+    private final List<Group> met = new ArrayList<>();
+    private final BitSet firsts = new BitSet();
+    private int next;
+    // by key, those of the frame being walked whose values still hold; null outside any frame
+    private Map<Object, Group> available;
+    // whether the expression about to be rewritten is an operand taken for its number
+    private boolean operand;
+
+    @Override
+    List<Stmt> program(List<Stmt> stmts) {
+        statements(stmts);
+        rewriting = true;
+        next = 0;
+        return statements(stmts);
+    }
+
+    @Override
+    Expr rewrite(Expr expr) {
+        boolean operand = this.operand;
+        Object key = available == null || expr == null ? null : Effects.key(expr, 0, operand);
+        if (key == null || Effects.weight(expr) < 2) return children(expr, operand);
+        int at = next++;
+        if (rewriting) {
+            Group group = met.get(at);
+            if (group.uses == 0) return children(expr, operand);
+            if (!firsts.get(at)) return local(0, group.slot);
+            Expr value = children(expr, operand);
+            group.slot = frames.get(frames.size() - 1).size++;
+            return store(0, group.slot, value);
+        }
+        Group group = available.get(key);
+        if (group != null) {
+            group.uses++;
+            met.add(group);
+            return expr;
+        }
+        met.add(null);
+        children(expr, operand);
+        group = new Group(expr);
+        met.set(at, group);
+        firsts.set(at);
+        available.put(key, group);
+        return expr;
+    }
+
+    // the expression with its children rewritten, each told whether it is such an operand
+    private Expr children(Expr expr, boolean operand) {
+        boolean outer = this.operand;
+        this.operand = Effects.numbers(expr, operand);
+        Expr out = super.rewrite(expr);
+        this.operand = outer;
+        return out;
+    }
+
+    private static Map<Object, Group> copy(Map<Object, Group> available) {
+        return available == null ? null : new HashMap<>(available);
+    }
+
+    // what both ways through a branch left
+    private static Map<Object, Group> both(Map<Object, Group> a, Map<Object, Group> b) {
+        if (a == null) return null;
+        a.entrySet().removeIf(entry -> b.get(entry.getKey()) != entry.getValue());
+        return a;
+    }
+
+    private void forget(Effects effects) {
+        available.values().removeIf(group -> !effects.keeps(group.expr, 0));
+    }
+
+    private void forget(Expr expr) {
+        if (available != null && !available.isEmpty()) forget(Effects.of(frames.get(frames.size() - 1), expr));
+    }
+
+    private void forget(Stmt stmt) {
+        if (available != null && !available.isEmpty()) forget(Effects.of(frames.get(frames.size() - 1), stmt));
+    }
+
+    @Override
+    public Expr visitAssignmentExpr(Expr.Assignment expr) {
+        Expr out = super.visitAssignmentExpr(expr);
+        forget(expr);
+        return out;
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr out = super.visitSetExpr(expr);
+        forget(expr);
+        return out;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr out = super.visitCallExpr(expr);
+        forget(expr);
+        return out;
+    }
+
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+        Expr.Call call = call(expr.call);
+        Map<Object, Group> before = available;
+        available = copy(before);
+        Expr body = rewrite(expr.body);
+        available = before;
+        forget(expr);
+        if (call == expr.call && body == expr.body) return expr;
+        return new Expr.Inline(call, body, expr.target, expr.self, expr.base);
+    }
+
+    @Override
+    public Expr visitIfExpr(Expr.If expr) {
+        Expr cond = rewrite(expr.cond);
+        Map<Object, Group> before = available;
+        available = copy(before);
+        Expr iftrue = rewrite(expr.iftrue);
+        Map<Object, Group> after = available;
+        available = copy(before);
+        Expr iffalse = rewrite(expr.iffalse);
+        available = both(after, available);
+        if (cond == expr.cond && iftrue == expr.iftrue && iffalse == expr.iffalse) return expr;
+        return new Expr.If(cond, iftrue, iffalse);
+    }
+
+    @Override
+    public Expr visitLogikaExpr(Expr.Logika expr) {
+        Expr left = rewrite(expr.left);
+        Map<Object, Group> before = available;
+        available = copy(before);
+        Expr right = rewrite(expr.right);
+        available = both(before, available);
+        return left == expr.left && right == expr.right ? expr : new Expr.Logika(left, expr.operator, right);
+    }
+
+    // what the loop changes has changed by the time it checks its condition again
+    @Override
+    public Expr visitWhileExpr(Expr.While expr) {
+        forget(expr);
+        Map<Object, Group> before = available;
+        available = copy(before);
+        Expr out = super.visitWhileExpr(expr);
+        available = before;
+        return out;
+    }
+
+    @Override
+    public Expr visitBlockExpr(Expr.Block expr) {
+        if (expr.flat && !frames.isEmpty()) return super.visitBlockExpr(expr);
+        Map<Object, Group> outer = available;
+        available = new HashMap<>();
+        Expr out = super.visitBlockExpr(expr);
+        available = outer;
+        forget(expr);
+        return out;
+    }
+
+    @Override
+    public Expr visitWithExpr(Expr.With expr) {
+        if (expr.flat && !frames.isEmpty()) return super.visitWithExpr(expr);
+        Map<Object, Group> outer = available;
+        available = new HashMap<>();
+        Expr out = super.visitWithExpr(expr);
+        available = outer;
+        forget(expr);
+        return out;
+    }
+
+    @Override
+    public Expr visitLambdaExpr(Expr.Lambda expr) {
+        Map<Object, Group> outer = available;
+        available = new HashMap<>();
+        Expr out = super.visitLambdaExpr(expr);
+        available = outer;
+        return out;
+    }
+
+    @Override
+    public Stmt visitFunStmt(Stmt.Fun stmt) {
+        Map<Object, Group> outer = available;
+        available = new HashMap<>();
+        Stmt out = super.visitFunStmt(stmt);
+        available = outer;
+        forget(stmt);
+        return out;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Stmt out = super.visitVarStmt(stmt);
+        forget(stmt);
+        return out;
+    }
+
+    @Override
+    public Stmt visitConstStmt(Stmt.Const stmt) {
+        Stmt out = super.visitConstStmt(stmt);
+        forget(stmt);
+        return out;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        Stmt out = super.visitClassStmt(stmt);
+        forget(stmt);
+        return out;
+    }
+
+    @Override
+    public Stmt visitExtendClassStmt(Stmt.ExtendClass stmt) {
+        Stmt out = super.visitExtendClassStmt(stmt);
+        forget(stmt);
+        return out;
+    }
+}
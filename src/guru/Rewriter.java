@@ -0,0 +1,345 @@
+package guru;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/*
+ * A pass over the resolved tree that hands back the tree it rewrote. By default a node
+ * whose children come back unchanged is kept, and any other is rebuilt with what the
+ * resolver worked out for it copied over; a pass overrides the nodes it simplifies.
+ * A statement visitor may return null to drop the statement.
+ */
+abstract class Rewriter implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+    // an environment around the node being rewritten: the slots it needs, which a pass may
+    // add to, and those declared so far that hold cells
+    static final class Frame {
+        int size;
+        final BitSet cells = new BitSet();
+
+        Frame(int size, int... cells) {
+            this.size = size;
+            for (int slot : cells) this.cells.set(slot);
+        }
+    }
+
+    // innermost last; a block at the top that declares nothing counts as one, and gets an
+    // environment of its own if a pass adds slots to it
+    final List<Frame> frames = new ArrayList<>();
+
+    List<Stmt> program(List<Stmt> stmts) {
+        return statements(stmts);
+    }
+
+    Expr rewrite(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    // the same list if nothing in it changed
+    List<Stmt> statements(List<Stmt> stmts) {
+        List<Stmt> out = null;
+        for (int i = 0; i < stmts.size(); i++) {
+            Stmt stmt = stmts.get(i);
+            Stmt next = stmt.accept(this);
+            if (next != stmt && out == null) out = new ArrayList<>(stmts.subList(0, i));
+            if (out != null && next != null) out.add(next);
+        }
+        return out == null ? stmts : out;
+    }
+
+    List<Expr> expressions(List<Expr> exprs) {
+        List<Expr> out = null;
+        for (int i = 0; i < exprs.size(); i++) {
+            Expr expr = exprs.get(i);
+            Expr next = rewrite(expr);
+            if (next != expr && out == null) out = new ArrayList<>(exprs.subList(0, i));
+            if (out != null) out.add(next);
+        }
+        return out == null ? exprs : out;
+    }
+
+    private List<Stmt.Fun> methods(List<Stmt.Fun> methods) {
+        List<Stmt.Fun> out = null;
+        for (int i = 0; i < methods.size(); i++) {
+            Stmt.Fun f = methods.get(i);
+            Stmt.Fun next = (Stmt.Fun) f.accept(this);
+            if (next != f && out == null) out = new ArrayList<>(methods.subList(0, i));
+            if (out != null) out.add(next);
+        }
+        return out == null ? methods : out;
+    }
+
+    private static final Token TEMP = new Token(TokenType.IDENTIFIER, "temp", null, 0);
+
+    // a read of, and a store to, a slot a pass added for a value of its own
+    static Expr.Variable local(int depth, int slot) {
+        Expr.Variable var = new Expr.Variable(TEMP);
+        var.depth = depth;
+        var.slot = slot;
+        return var;
+    }
+
+    static Expr.Assignment store(int depth, int slot, Expr value) {
+        Expr.Assignment assignment = new Expr.Assignment(TEMP, value);
+        assignment.depth = depth;
+        assignment.slot = slot;
+        return assignment;
+    }
+
+    // a block with the given statements, its result moved to the last expression statement
+    static Expr.Block block(Expr.Block expr, List<Stmt> stmts) {
+        if (stmts == expr.stmts) return expr;
+        Expr.Block block = new Expr.Block(stmts);
+        block.size = expr.size;
+        block.flat = expr.flat;
+        for (int i = 0; i < stmts.size(); i++) {
+            if (stmts.get(i) instanceof Stmt.Statement) block.result = i;
+        }
+        return block;
+    }
+
+    private void declare(int slot, boolean cell) {
+        if (cell && slot != -1 && !frames.isEmpty()) frames.get(frames.size() - 1).cells.set(slot);
+    }
+
+    @Override
+    public Expr visitLambdaExpr(Expr.Lambda expr) {
+        frames.add(new Frame(expr.size, expr.captures.cells));
+        Expr body = rewrite(expr.expression);
+        int size = frames.remove(frames.size() - 1).size;
+        if (body == expr.expression) return expr;
+        Expr.Lambda lambda = new Expr.Lambda(expr.args, body, expr.isStatic);
+        lambda.size = size;
+        lambda.captures = expr.captures;
+        return lambda;
+    }
+
+    @Override
+    public Expr visitAnonExpr(Expr.Anon expr) {
+        List<Stmt.Fun> methods = methods(expr.methods);
+        return methods == expr.methods ? expr : new Expr.Anon(methods);
+    }
+
+    @Override
+    public Expr visitExtendAnonExpr(Expr.ExtendAnon expr) {
+        Expr.Anon def = (Expr.Anon) visitAnonExpr(expr.def);
+        if (def == expr.def) return expr;
+        Expr.ExtendAnon anon = new Expr.ExtendAnon(def, expr.father);
+        anon.depth = expr.depth;
+        anon.slot = expr.slot;
+        return anon;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr obj = rewrite(expr.obj);
+        return obj == expr.obj ? expr : new Expr.Get(obj, expr.name);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr value = rewrite(expr.value), obj = rewrite(expr.obj);
+        return obj == expr.obj && value == expr.value ? expr : new Expr.Set(obj, expr.name, value);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = rewrite(expr.left), right = rewrite(expr.right);
+        return left == expr.left && right == expr.right ? expr : new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitLogikaExpr(Expr.Logika expr) {
+        Expr left = rewrite(expr.left), right = rewrite(expr.right);
+        return left == expr.left && right == expr.right ? expr : new Expr.Logika(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        return call(expr);
+    }
+
+    // the call with its parts rewritten, which a pass that handles calls itself builds on; the
+    // Get of a method call is part of the call rather than a value, so only its object is one
+    Expr.Call call(Expr.Call expr) {
+        Expr callee = expr.callee instanceof Expr.Get ? expr.callee.accept(this) : rewrite(expr.callee);
+        List<Expr> args = expressions(expr.args);
+        if (callee == expr.callee && args == expr.args) return expr;
+        Expr.Call call = new Expr.Call(callee, expr.paren, args);
+        call.tail = expr.tail;
+        return call;
+    }
+
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+        Expr.Call call = call(expr.call);
+        Expr body = rewrite(expr.body);
+        if (call == expr.call && body == expr.body) return expr;
+        return new Expr.Inline(call, body, expr.target, expr.self, expr.base);
+    }
+
+    @Override
+    public Expr visitWhileExpr(Expr.While expr) {
+        Expr cond = rewrite(expr.cond), body = rewrite(expr.body);
+        return cond == expr.cond && body == expr.body ? expr : new Expr.While(cond, body);
+    }
+
+    private Expr with(Expr.With expr) {
+        List<Stmt.Var> stmts = null;
+        for (int i = 0; i < expr.stmts.size(); i++) {
+            Stmt.Var var = expr.stmts.get(i);
+            Stmt.Var next = (Stmt.Var) visitVarStmt(var);
+            if (next != var && stmts == null) stmts = new ArrayList<>(expr.stmts.subList(0, i));
+            if (stmts != null) stmts.add(next);
+        }
+        Expr body = rewrite(expr.body);
+        if (stmts == null && body == expr.body) return expr;
+        Expr.With with = new Expr.With(stmts == null ? expr.stmts : stmts, body);
+        with.size = expr.size;
+        with.flat = expr.flat;
+        return with;
+    }
+
+    @Override
+    public Expr visitWithExpr(Expr.With expr) {
+        if (expr.flat && !frames.isEmpty()) return with(expr);
+        frames.add(new Frame(expr.size));
+        Expr.With with = (Expr.With) with(expr);
+        int size = frames.remove(frames.size() - 1).size;
+        if (size == expr.size) return with;
+        with.size = size;
+        with.flat = false;
+        return with;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr inner = rewrite(expr.expression);
+        return inner == expr.expression ? expr : new Expr.Grouping(inner);
+    }
+
+    @Override
+    public Expr visitIfExpr(Expr.If expr) {
+        Expr cond = rewrite(expr.cond), iftrue = rewrite(expr.iftrue), iffalse = rewrite(expr.iffalse);
+        if (cond == expr.cond && iftrue == expr.iftrue && iffalse == expr.iffalse) return expr;
+        return new Expr.If(cond, iftrue, iffalse);
+    }
+
+    @Override
+    public Expr visitBlockExpr(Expr.Block expr) {
+        if (expr.flat && !frames.isEmpty()) return block(expr, statements(expr.stmts));
+        frames.add(new Frame(expr.size));
+        Expr.Block block = block(expr, statements(expr.stmts));
+        int size = frames.remove(frames.size() - 1).size;
+        if (size == expr.size) return block;
+        block.size = size;
+        block.flat = false;
+        return block;
+    }
+
+    @Override
+    public Expr visitAssignmentExpr(Expr.Assignment expr) {
+        Expr value = rewrite(expr.value);
+        if (value == expr.value) return expr;
+        Expr.Assignment assignment = new Expr.Assignment(expr.name, value);
+        assignment.depth = expr.depth;
+        assignment.slot = expr.slot;
+        return assignment;
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitCommaExpressionsExpr(Expr.CommaExpressions expr) {
+        List<Expr> exprs = expressions(expr.expressionList);
+        return exprs == expr.expressionList ? expr : new Expr.CommaExpressions(exprs);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = rewrite(expr.right);
+        return right == expr.right ? expr : new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Stmt visitStatementStmt(Stmt.Statement stmt) {
+        Expr expr = rewrite(stmt.expression);
+        return expr == stmt.expression ? stmt : new Stmt.Statement(expr);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        declare(stmt.slot, stmt.cell);
+        Expr expr = rewrite(stmt.expression);
+        if (expr == stmt.expression) return stmt;
+        Stmt.Var var = new Stmt.Var(stmt.name, expr);
+        var.slot = stmt.slot;
+        var.global = stmt.global;
+        var.scalar = stmt.scalar;
+        var.cell = stmt.cell;
+        return var;
+    }
+
+    @Override
+    public Stmt visitConstStmt(Stmt.Const stmt) {
+        Expr expr = rewrite(stmt.expression);
+        if (expr == stmt.expression) return stmt;
+        Stmt.Const c = new Stmt.Const(stmt.name, expr);
+        c.slot = stmt.slot;
+        c.global = stmt.global;
+        return c;
+    }
+
+    @Override
+    public Stmt visitFunStmt(Stmt.Fun stmt) {
+        declare(stmt.slot, stmt.cell);
+        frames.add(new Frame(stmt.size, stmt.captures.cells));
+        Expr body = rewrite(stmt.expression);
+        int size = frames.remove(frames.size() - 1).size;
+        if (body == stmt.expression) return stmt;
+        Stmt.Fun f = new Stmt.Fun(stmt.name, stmt.args, body, stmt.isStatic);
+        f.slot = stmt.slot;
+        f.global = stmt.global;
+        f.size = size;
+        f.cell = stmt.cell;
+        f.captures = stmt.captures;
+        return f;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        declare(stmt.slot, stmt.cell);
+        List<Stmt.Fun> methods = methods(stmt.methods);
+        if (methods == stmt.methods) return stmt;
+        Stmt.Class c = new Stmt.Class(stmt.name, methods);
+        c.slot = stmt.slot;
+        c.global = stmt.global;
+        c.cell = stmt.cell;
+        return c;
+    }
+
+    @Override
+    public Stmt visitExtendClassStmt(Stmt.ExtendClass stmt) {
+        Stmt.Class def = (Stmt.Class) visitClassStmt(stmt.def);
+        if (def == stmt.def) return stmt;
+        Stmt.ExtendClass c = new Stmt.ExtendClass(def, stmt.father);
+        c.depth = stmt.depth;
+        c.slot = stmt.slot;
+        return c;
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expr = rewrite(stmt.expression);
+        return expr == stmt.expression ? stmt : new Stmt.Print(expr);
+    }
+}
@@ -0,0 +1,269 @@
+package guru;
+
+import java.util.Arrays;
+
+import guru.Interpreter.RE;
+
+/*
+ * A function of a compiled image, as a JVM class Translator made for it. Its body
+ * runs in the run method of its arity, or in enter past three parameters, and may
+ * hand back an Interpreter.TailCall for the caller's trampoline. The static methods
+ * are what that code calls for anything but moving values between locals; they do
+ * what the VM does for the same instructions, errors included.
+ */
+abstract class Routine implements GCallable {
+    private static final Object UNDEFINED = new Object();
+
+    private static Object[] globals = new Object[0];
+    private static Object[] consts = new Object[0];
+
+    private final String name;
+    final int arity;
+    private final boolean isStatic;
+    final Upvalue[] upvalues;
+
+    Routine(String name, int arity, boolean isStatic, Upvalue[] upvalues) {
+        this.name = name;
+        this.arity = arity;
+        this.isStatic = isStatic;
+        this.upvalues = upvalues;
+    }
+
+    // the globals of a script with this many of them, runtime among them as in a fresh VM
+    static void start(int size, int runtime) {
+        globals = new Object[size];
+        consts = new Object[size];
+        Arrays.fill(globals, UNDEFINED);
+        globals[runtime] = Interpreter.natives();
+    }
+
+    Object run0() {
+        return enter(new Object[0]);
+    }
+
+    Object run1(Object a) {
+        return enter(new Object[] {a});
+    }
+
+    Object run2(Object a, Object b) {
+        return enter(new Object[] {a, b});
+    }
+
+    Object run3(Object a, Object b, Object c) {
+        return enter(new Object[] {a, b, c});
+    }
+
+    // missing arguments are nothing and extra ones are dropped, as the VM enters a frame
+    abstract Object enter(Object[] args);
+
+    static Object arg(Object[] args, int i) {
+        return i < args.length ? args[i] : null;
+    }
+
+    @Override
+    public final Object callN(Interpreter i, Object[] args) {
+        return Interpreter.trampoline(i, enter(args));
+    }
+
+    @Override
+    public final Object call0(Interpreter i) {
+        return Interpreter.trampoline(i, run0());
+    }
+
+    @Override
+    public final Object call1(Interpreter i, Object a) {
+        return Interpreter.trampoline(i, run1(a));
+    }
+
+    @Override
+    public final Object call2(Interpreter i, Object a, Object b) {
+        return Interpreter.trampoline(i, run2(a, b));
+    }
+
+    final Object call3(Object a, Object b, Object c) {
+        return Interpreter.trampoline(null, run3(a, b, c));
+    }
+
+    @Override
+    public final Object enterN(Interpreter i, Object[] args) {
+        return enter(args);
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public boolean isStatic() {
+        return isStatic;
+    }
+
+    @Override
+    public String toString() {
+        return name == null ? "function anon" : "function " + name;
+    }
+
+    static Object global(int slot, Token name) {
+        Object val = consts[slot];
+        if (val != null) return val;
+        val = globals[slot];
+        if (val == UNDEFINED) throw new RE("Undefined variable '" + name.lexeme + "'.", name);
+        return val;
+    }
+
+    static void assign(Object val, int slot, Token name) {
+        if (globals[slot] == UNDEFINED) throw new RE("Undefined variable '" + name.lexeme + "'.", name);
+        globals[slot] = val;
+    }
+
+    static void define(Object val, int slot) {
+        globals[slot] = val;
+    }
+
+    static void constant(Object val, int slot) {
+        consts[slot] = val;
+    }
+
+    static void print(Object val) {
+        System.out.println(val == null ? "nothing" : Numbers.stringify(val));
+    }
+
+    static Object not(Object val) {
+        return !Interpreter.isTruthy(val);
+    }
+
+    static Object negate(Object val, Token operator) {
+        return Numbers.negate(num(val, operator));
+    }
+
+    private static Object num(Object operand, Token operator) {
+        if (Numbers.isNumber(operand)) return operand;
+        throw new RE("Operand must be a number.", operator);
+    }
+
+    static Object equal(Object a, Object b) {
+        return Interpreter.isEqual(a, b);
+    }
+
+    static Object notEqual(Object a, Object b) {
+        return !Interpreter.isEqual(a, b);
+    }
+
+    static Object greater(Object a, Object b, Token operator) {
+        return Numbers.less(num(b, operator), num(a, operator));
+    }
+
+    static Object greaterEqual(Object a, Object b, Token operator) {
+        return Numbers.lessEqual(num(b, operator), num(a, operator));
+    }
+
+    static Object less(Object a, Object b, Token operator) {
+        return Numbers.less(num(a, operator), num(b, operator));
+    }
+
+    static Object lessEqual(Object a, Object b, Token operator) {
+        return Numbers.lessEqual(num(a, operator), num(b, operator));
+    }
+
+    static Object add(Object a, Object b, Token operator) {
+        if (Numbers.isNumber(a) && Numbers.isNumber(b)) return Numbers.add(a, b);
+        if (a instanceof String && b instanceof String) return (String) a + (String) b;
+        throw new RE("invalid types for sum operation;", operator);
+    }
+
+    static Object subtract(Object a, Object b, Token operator) {
+        return Numbers.subtract(num(a, operator), num(b, operator));
+    }
+
+    static Object multiply(Object a, Object b, Token operator) {
+        return Numbers.multiply(num(a, operator), num(b, operator));
+    }
+
+    static Object divide(Object a, Object b, Token operator) {
+        return Numbers.divide(num(a, operator), num(b, operator));
+    }
+
+    static Object call(Object callee, Object[] args, Token paren) {
+        if (callee instanceof Interpreter.Curried) {
+            Interpreter.Curried curried = (Interpreter.Curried) callee;
+            Object[] all = Arrays.copyOf(curried.fargs, curried.fargs.length + args.length);
+            System.arraycopy(args, 0, all, curried.fargs.length, args.length);
+            return call(curried.func, all, paren);
+        }
+        if (!(callee instanceof GCallable)) throw new RE("not a funciton, you moron", paren);
+        return Interpreter.call(null, (GCallable) callee, args, paren);
+    }
+
+    static Object call0(Object callee, Token paren) {
+        if (callee instanceof Routine && ((Routine) callee).arity == 0) return ((Routine) callee).call0(null);
+        return call(callee, new Object[0], paren);
+    }
+
+    static Object call1(Object callee, Object a, Token paren) {
+        if (callee instanceof Routine && ((Routine) callee).arity == 1) return ((Routine) callee).call1(null, a);
+        return call(callee, new Object[] {a}, paren);
+    }
+
+    static Object call2(Object callee, Object a, Object b, Token paren) {
+        if (callee instanceof Routine && ((Routine) callee).arity == 2) return ((Routine) callee).call2(null, a, b);
+        return call(callee, new Object[] {a, b}, paren);
+    }
+
+    static Object call3(Object callee, Object a, Object b, Object c, Token paren) {
+        if (callee instanceof Routine && ((Routine) callee).arity == 3) return ((Routine) callee).call3(a, b, c);
+        return call(callee, new Object[] {a, b, c}, paren);
+    }
+
+    // a call in tail position: one the caller's trampoline makes when the VM would reuse the frame
+    static Object tail(Object callee, Object[] args, Token paren) {
+        if (callee instanceof Routine && ((Routine) callee).arity == args.length) return new Interpreter.TailCall((Routine) callee, args);
+        return call(callee, args, paren);
+    }
+
+    // the method obj.name(...) runs with obj as its first argument, or null if the call goes through obj.name
+    static Routine method(PropertyCache cache, Object obj, Token name, int size) {
+        if (!(obj instanceof GInstance) || name.lexeme.equals("new")) return null;
+        Object method = cache.lookup((GInstance) obj, name);
+        if (!(method instanceof Routine)) return null;
+        Routine routine = (Routine) method;
+        return !routine.isStatic && (routine.arity == size || routine.arity == 0) ? routine : null;
+    }
+
+    static Object invoke0(PropertyCache cache, Object obj, Token name, Token paren) {
+        Routine method = method(cache, obj, name, 1);
+        return method != null ? method.call1(null, obj) : call0(cache.get(obj, name), paren);
+    }
+
+    static Object invoke1(PropertyCache cache, Object obj, Token name, Object a, Token paren) {
+        Routine method = method(cache, obj, name, 2);
+        return method != null ? method.call2(null, obj, a) : call1(cache.get(obj, name), a, paren);
+    }
+
+    static Object invoke2(PropertyCache cache, Object obj, Token name, Object a, Object b, Token paren) {
+        Routine method = method(cache, obj, name, 3);
+        return method != null ? method.call3(obj, a, b) : call2(cache.get(obj, name), a, b, paren);
+    }
+
+    static Object invoke(PropertyCache cache, Object obj, Token name, Object[] args, Token paren) {
+        Routine method = method(cache, obj, name, args.length + 1);
+        return method != null ? method.callN(null, Interpreter.prepend(obj, args)) : call(cache.get(obj, name), args, paren);
+    }
+
+    static Object tailInvoke(PropertyCache cache, Object obj, Token name, Object[] args, Token paren) {
+        Routine method = method(cache, obj, name, args.length + 1);
+        if (method != null && method.arity == args.length + 1) return new Interpreter.TailCall(method, Interpreter.prepend(obj, args));
+        return invoke(cache, obj, name, args, paren);
+    }
+
+    static void method(Object cl, String name, Object method) {
+        ((GClass) cl).define(name, method);
+        if (((Routine) method).isStatic) ((GClass) cl).put(name, method);
+    }
+
+    static Object inherit(Object sup, Object sub, Token father) {
+        if (!(sup instanceof GClass)) throw new RE("no father class with such a name found", father);
+        ((GClass) sub).inherit((GClass) sup);
+        return sub;
+    }
+}
@@ -161,8 +161,13 @@ class Scanner {
             while (isDigit(peek())) advance();
         }
 
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
-    } 
+        String text = source.substring(start, current);
+        addToken(NUMBER, integral(text) ? (Object) Long.parseLong(text) : (Object) Double.parseDouble(text));
+    }
+
+    private static boolean integral(String text) {
+        return text.indexOf('.') == -1 && (text.length() < 19 || text.length() == 19 && text.compareTo("9223372036854775807") <= 0);
+    }
 
     private char peek2() {
         if (current + 1 >= source.length()) return '\0';
@@ -181,6 +186,8 @@ class Scanner {
 
         String val = source.substring(start, current);
         TokenType tt = keywords.get(val);
-        addToken(tt == null ? IDENTIFIER : tt);
+        // interned, so that shapes mostly find field names by identity
+        if (tt == null) tokens.add(new Token(IDENTIFIER, val.intern(), null, line));
+        else addToken(tt);
     }
 }
@@ -0,0 +1,85 @@
+package guru;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * The layout of an instance: which field lives in which slot of its values array.
+ * Shapes are shared and immutable; adding a field moves an instance along a
+ * transition to the child shape for that name, so instances that get the same
+ * fields in the same order end up with the same shape.
+ *
+ * A field that first gets a number is kept as a raw double as well, so compiled code
+ * can read and write it without boxing. Storing anything else there moves the
+ * instance to the shape with that slot boxed.
+ */
+final class Shape {
+    static final Shape ROOT = new Shape(new String[0], new boolean[0]);
+
+    // past this many fields a lookup goes through a map instead of a scan
+    private static final int SCAN = 8;
+
+    final String[] keys;
+    // slots that hold numbers, unboxed in GInstance.doubles
+    final boolean[] doubles;
+    private final Map<String, Integer> index;
+    private final Map<String, Shape> transitions = new HashMap<>(4);
+    // same layout with one slot boxed, by slot
+    private Shape[] boxed;
+
+    private Shape(String[] keys, boolean[] doubles) {
+        this.keys = keys;
+        this.doubles = doubles;
+        if (keys.length > SCAN) {
+            index = new HashMap<>(keys.length * 2);
+            for (int i = 0; i < keys.length; i++) index.put(keys[i], i);
+        } else {
+            index = null;
+        }
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    // slot of the field, or -1
+    int slot(String key) {
+        if (index != null) {
+            Integer slot = index.get(key);
+            return slot == null ? -1 : slot;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == key) return i;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) return i;
+        }
+        return -1;
+    }
+
+    // the shape with one more field, unboxed if its first value is a number
+    Shape with(String key, Object value) {
+        Shape next = transitions.get(key);
+        boolean number = Numbers.isNumber(value);
+        if (next == null || next.doubles[keys.length] && !number) {
+            String[] grown = Arrays.copyOf(keys, keys.length + 1);
+            grown[keys.length] = key.intern();
+            boolean[] kinds = Arrays.copyOf(doubles, doubles.length + 1);
+            kinds[doubles.length] = number;
+            next = new Shape(grown, kinds);
+            transitions.put(key, next);
+        }
+        return next;
+    }
+
+    Shape boxed(int slot) {
+        if (boxed == null) boxed = new Shape[keys.length];
+        if (boxed[slot] == null) {
+            boolean[] kinds = doubles.clone();
+            kinds[slot] = false;
+            boxed[slot] = new Shape(keys, kinds);
+        }
+        return boxed[slot];
+    }
+}
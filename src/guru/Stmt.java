@@ -32,6 +32,10 @@ abstract class Stmt {
 
         final Token name;
         final Expr expression;
+        int slot = -1;
+        int global;
+        boolean scalar;
+        boolean cell;
 
     @Override
     <R> R accept(Visitor<R> visitor) {
@@ -46,6 +50,8 @@ abstract class Stmt {
 
         final Token name;
         final Expr expression;
+        int slot = -1;
+        int global;
 
     @Override
     <R> R accept(Visitor<R> visitor) {
@@ -64,6 +70,11 @@ abstract class Stmt {
         final List<Token> args;
         final Expr expression;
         final Boolean isStatic;
+        int slot = -1;
+        int global;
+        int size;
+        boolean cell;
+        Captures captures;
 
     @Override
     <R> R accept(Visitor<R> visitor) {
@@ -78,6 +89,9 @@ abstract class Stmt {
 
         final Token name;
         final List<Stmt.Fun> methods;
+        int slot = -1;
+        int global;
+        boolean cell;
 
     @Override
     <R> R accept(Visitor<R> visitor) {
@@ -92,6 +106,8 @@ abstract class Stmt {
 
         final Stmt.Class def;
         final Token father;
+        int depth = -1;
+        int slot;
 
     @Override
     <R> R accept(Visitor<R> visitor) {
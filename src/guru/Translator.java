@@ -0,0 +1,667 @@
+package guru;
+
+import static guru.Assembler.*;
+import static guru.OpCode.*;
+import static guru.OpCode.POP;
+import static guru.OpCode.RETURN;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import guru.Assembler.Label;
+
+/*
+ * Ahead-of-time compiler for images: every Proto of a compiled script becomes a JVM
+ * class extending Routine, so the script runs as HotSpot compiles it instead of
+ * through the VM's loop. The depth of the VM stack is known at each instruction,
+ * so every stack slot becomes a JVM local. A slot some closure captures holds an
+ * Upvalue instead, and gets a new one each time it is pushed, where the VM would
+ * have closed the old one. Numbers, the tokens errors report and an inline cache
+ * for each property site are static fields set up when the class loads.
+ */
+final class Translator {
+    static final String PREFIX = "guru/Image$F";
+
+    private static final String ROUTINE = "guru/Routine", UPVALUE = "guru/Upvalue", TOKEN = "guru/Token",
+        CACHE = "guru/PropertyCache", OBJECT = "Ljava/lang/Object;",
+        ARGS = "([Ljava/lang/Object;)Ljava/lang/Object;", CREATE = "([Lguru/Upvalue;)V";
+
+    private final Proto proto;
+    private final String self;
+    private final byte[] code;
+    private final int[] lines;
+    private final Object[] k;
+    private final Map<Proto, String> names;
+    private final Assembler asm = new Assembler();
+
+    // the VM stack depth before each instruction, -1 where none is reached
+    private final int[] depths;
+    private final Map<Integer, Label> targets = new HashMap<>();
+    // stack slots some closure captures
+    private final BitSet captured = new BitSet();
+    private int size;
+
+    private final Map<String, String> fields = new HashMap<>();
+    private final List<Runnable> inits = new ArrayList<>();
+
+    // the local of stack slot 0, and where a tail call to the routine itself goes
+    private int first;
+    private Label start;
+
+    private Translator(Proto proto, Map<Proto, String> names) {
+        this.proto = proto;
+        this.self = names.get(proto);
+        this.code = proto.chunk.code;
+        this.lines = proto.chunk.lines;
+        this.k = proto.chunk.constants;
+        this.names = names;
+        this.depths = new int[code.length];
+    }
+
+    // the classes of a script and its functions by name; the script's has a static main to run it
+    static Map<String, byte[]> translate(Proto script, VM vm) {
+        Map<Proto, String> names = new IdentityHashMap<>();
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        List<Proto> protos = new ArrayList<>();
+        protos.add(script);
+        names.put(script, PREFIX + 0);
+        for (int i = 0; i < protos.size(); i++) {
+            Proto proto = protos.get(i);
+            for (Object k : proto.chunk.constants) {
+                if (k instanceof Proto && !names.containsKey(k)) {
+                    names.put((Proto) k, PREFIX + protos.size());
+                    protos.add((Proto) k);
+                }
+            }
+            Translator translator = new Translator(proto, names);
+            try {
+                classes.put(names.get(proto), translator.assemble(i == 0 ? vm : null));
+            } catch (IllegalStateException e) {
+                Guru.error(proto.chunk.lines[0], "Cannot compile " + proto + ": " + e.getMessage() + ".");
+            }
+        }
+        return classes;
+    }
+
+    private byte[] assemble(VM vm) {
+        analyze();
+        asm.begin(ACC_PUBLIC, "<init>", CREATE, 2);
+        asm.aload(0);
+        if (proto.name == null) asm.op(ACONST_NULL, 1); else asm.ldc(proto.name);
+        asm.push(proto.arity);
+        asm.push(proto.isStatic ? 1 : 0);
+        asm.aload(1);
+        asm.invoke(INVOKESPECIAL, ROUTINE, "<init>", "(Ljava/lang/String;IZ[Lguru/Upvalue;)V");
+        asm.op(Assembler.RETURN, 0);
+        asm.end();
+        int arity = proto.arity;
+        if (arity <= 3) {
+            String run = "(" + OBJECT.repeat(arity) + ")" + OBJECT;
+            asm.begin(0, "run" + arity, run, 1 + arity);
+            first = 1;
+            body();
+            asm.begin(0, "enter", ARGS, 2);
+            asm.aload(0);
+            for (int i = 0; i < arity; i++) arg(i);
+            asm.invoke(INVOKEVIRTUAL, self, "run" + arity, run);
+            asm.op(ARETURN, -1);
+            asm.end();
+        } else {
+            asm.begin(0, "enter", ARGS, 2);
+            first = 2;
+            asm.local(arity);
+            for (int i = 0; i < arity; i++) {
+                arg(i);
+                asm.astore(first + i);
+            }
+            body();
+        }
+        if (vm != null) {
+            asm.begin(ACC_PUBLIC | ACC_STATIC, "main", "()" + OBJECT, 0);
+            asm.push(vm.names().length);
+            asm.push(vm.global("runtime"));
+            asm.invoke(INVOKESTATIC, ROUTINE, "start", "(II)V");
+            asm.type(NEW, self);
+            asm.op(DUP, 1);
+            asm.push(0);
+            asm.type(ANEWARRAY, UPVALUE);
+            asm.invoke(INVOKESPECIAL, self, "<init>", CREATE);
+            asm.op(ACONST_NULL, 1);
+            asm.invoke(INVOKEVIRTUAL, ROUTINE, "call0", "(Lguru/Interpreter;)" + OBJECT);
+            asm.op(ARETURN, -1);
+            asm.end();
+        }
+        if (!inits.isEmpty()) {
+            asm.begin(ACC_STATIC, "<clinit>", "()V", 0);
+            for (Runnable init : inits) init.run();
+            asm.op(Assembler.RETURN, 0);
+            asm.end();
+        }
+        return asm.finish(self, ROUTINE);
+    }
+
+    private void arg(int i) {
+        asm.aload(1);
+        asm.push(i);
+        asm.invoke(INVOKESTATIC, ROUTINE, "arg", "([Ljava/lang/Object;I)" + OBJECT);
+    }
+
+    private int u1(int at) {
+        return code[at] & 0xff;
+    }
+
+    private int u2(int at) {
+        return (code[at] & 0xff) << 8 | code[at + 1] & 0xff;
+    }
+
+    private int length(int ip) {
+        byte op = code[ip];
+        if (op >= EQUAL_LL && op <= DIVIDE_LL) return 3;
+        if (op >= EQUAL_LK && op <= DIVIDE_LK) return 4;
+        switch (op) {
+            case GET_LOCAL: case SET_LOCAL: case SET_LOCAL_POP: case GET_UPVALUE: case SET_UPVALUE:
+            case CALL: case TAIL_CALL: case CLOSE_SCOPE:
+                return 2;
+            case CONSTANT: case DEFINE_GLOBAL: case DEFINE_CONST: case GET_PROPERTY: case SET_PROPERTY:
+            case JUMP: case JUMP_IF_FALSE: case JUMP_IF_TRUE: case POP_JUMP_IF_FALSE: case LOOP:
+            case CLASS: case METHOD: case INHERIT:
+                return 3;
+            case INVOKE: case TAIL_INVOKE:
+                return 4;
+            case GET_GLOBAL: case SET_GLOBAL:
+                return 5;
+            case CLOSURE:
+                return 3 + 2 * ((Proto) k[u2(ip + 1)]).upvalues;
+            default:
+                return 1;
+        }
+    }
+
+    // how many slots the instruction at ip pushes, less those it pops
+    private int effect(int ip) {
+        byte op = code[ip];
+        if (op >= EQUAL_LL && op <= DIVIDE_LK) return 1;
+        if (op >= EQUAL && op <= DIVIDE) return -1;
+        switch (op) {
+            case CONSTANT: case NIL: case TRUE: case FALSE: case GET_LOCAL: case GET_UPVALUE: case GET_GLOBAL:
+            case CLOSURE: case CLASS:
+                return 1;
+            case POP: case SET_LOCAL_POP: case DEFINE_GLOBAL: case DEFINE_CONST: case SET_PROPERTY: case PRINT:
+            case POP_JUMP_IF_FALSE: case METHOD: case INHERIT: case RETURN:
+                return -1;
+            case CALL: case TAIL_CALL: case CLOSE_SCOPE:
+                return -u1(ip + 1);
+            case INVOKE: case TAIL_INVOKE:
+                return -u1(ip + 3);
+            default:
+                return 0;
+        }
+    }
+
+    private int target(int ip) {
+        return code[ip] == LOOP ? ip + 3 - u2(ip + 1) : ip + 3 + u2(ip + 1);
+    }
+
+    // the stack depth at every instruction reached, the jump targets and the captured slots
+    private void analyze() {
+        Arrays.fill(depths, -1);
+        Deque<Integer> work = new ArrayDeque<>();
+        size = proto.arity;
+        flow(0, proto.arity, work);
+        while (!work.isEmpty()) {
+            int ip = work.pop();
+            byte op = code[ip];
+            int after = depths[ip] + effect(ip);
+            size = Math.max(size, after);
+            if (op == CLOSURE) {
+                for (int i = ip + 3; i < ip + length(ip); i += 2) {
+                    if (code[i] == 1) captured.set(u1(i + 1));
+                }
+            }
+            if (op == RETURN) continue;
+            if (op >= JUMP && op <= LOOP) {
+                int target = target(ip);
+                targets.computeIfAbsent(target, t -> new Label());
+                flow(target, after, work);
+            }
+            if (op != JUMP && op != LOOP) flow(ip + length(ip), after, work);
+        }
+    }
+
+    private void flow(int ip, int depth, Deque<Integer> work) {
+        if (ip >= code.length) throw new IllegalStateException("runs past its end");
+        if (depths[ip] == depth) return;
+        if (depths[ip] != -1) throw new IllegalStateException("stack depth differs at " + ip);
+        depths[ip] = depth;
+        work.push(ip);
+    }
+
+    private void body() {
+        asm.local(first + size + 1 - asm.locals());
+        for (int slot = 0; slot < proto.arity; slot++) {
+            if (!captured.get(slot)) continue;
+            asm.aload(first + slot);
+            push(slot);
+        }
+        start = new Label();
+        asm.place(start);
+        for (int ip = 0; ip < code.length; ip += length(ip)) {
+            if (depths[ip] < 0) continue;
+            Label label = targets.get(ip);
+            if (label != null) asm.place(label);
+            instruction(ip, depths[ip]);
+        }
+        asm.end();
+    }
+
+    // the value in a stack slot
+    private void load(int slot) {
+        asm.aload(first + slot);
+        if (captured.get(slot)) asm.field(GETFIELD, UPVALUE, "value", OBJECT);
+    }
+
+    // pops into a slot as it is pushed: a captured one gets a cell of its own
+    private void push(int slot) {
+        if (!captured.get(slot)) {
+            asm.astore(first + slot);
+            return;
+        }
+        int scratch = first + size;
+        asm.astore(scratch);
+        asm.type(NEW, UPVALUE);
+        asm.op(DUP, 1);
+        asm.push(-1);
+        asm.op(ACONST_NULL, 1);
+        asm.invoke(INVOKESPECIAL, UPVALUE, "<init>", "(ILguru/Upvalue;)V");
+        asm.op(DUP, 1);
+        asm.astore(first + slot);
+        asm.aload(scratch);
+        asm.field(PUTFIELD, UPVALUE, "value", OBJECT);
+    }
+
+    // pops into a slot already pushed, where the closures that captured it see the change
+    private void store(int slot) {
+        if (!captured.get(slot)) {
+            asm.astore(first + slot);
+            return;
+        }
+        int scratch = first + size;
+        asm.astore(scratch);
+        asm.aload(first + slot);
+        asm.aload(scratch);
+        asm.field(PUTFIELD, UPVALUE, "value", OBJECT);
+    }
+
+    private void upvalue(int index) {
+        asm.aload(0);
+        asm.field(GETFIELD, ROUTINE, "upvalues", "[Lguru/Upvalue;");
+        asm.push(index);
+        asm.op(AALOAD, -1);
+    }
+
+    // the slots from one up as a new array
+    private void array(int from, int n) {
+        asm.push(n);
+        asm.type(ANEWARRAY, "java/lang/Object");
+        for (int i = 0; i < n; i++) {
+            asm.op(DUP, 1);
+            asm.push(i);
+            load(from + i);
+            asm.op(AASTORE, -3);
+        }
+    }
+
+    // a static field of this class, set as it loads
+    private void constant(String key, String desc, Runnable init) {
+        String name = fields.get(key);
+        if (name == null) {
+            String field = "k" + fields.size();
+            asm.declare(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, field, desc);
+            inits.add(() -> {
+                init.run();
+                asm.field(PUTSTATIC, self, field, desc);
+            });
+            fields.put(key, field);
+            name = field;
+        }
+        asm.field(GETSTATIC, self, name, desc);
+    }
+
+    private void constant(Object value) {
+        if (value instanceof String) {
+            asm.ldc((String) value);
+        } else if (value == Parser.Void.VOID) {
+            asm.field(GETSTATIC, "guru/Parser$Void", "VOID", "Lguru/Parser$Void;");
+        } else if (value instanceof Long) {
+            long l = (Long) value;
+            constant("J" + l, OBJECT, () -> {
+                asm.ldc(l);
+                asm.invoke(INVOKESTATIC, "java/lang/Long", "valueOf", "(J)Ljava/lang/Long;");
+            });
+        } else if (value instanceof Double) {
+            double d = (Double) value;
+            constant("D" + Double.doubleToRawLongBits(d), OBJECT, () -> {
+                asm.ldc(d);
+                asm.invoke(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+            });
+        } else {
+            throw new IllegalStateException("cannot compile constant " + value);
+        }
+    }
+
+    private void token(Token token) {
+        token(token.type, token.lexeme, token.line);
+    }
+
+    private void token(TokenType type, String lexeme, int line) {
+        constant("T" + type + " " + line + " " + lexeme, "Lguru/Token;", () -> {
+            asm.type(NEW, TOKEN);
+            asm.op(DUP, 1);
+            asm.field(GETSTATIC, "guru/TokenType", type.name(), "Lguru/TokenType;");
+            asm.ldc(lexeme);
+            asm.op(ACONST_NULL, 1);
+            asm.push(line);
+            asm.invoke(INVOKESPECIAL, TOKEN, "<init>", "(Lguru/TokenType;Ljava/lang/String;Ljava/lang/Object;I)V");
+        });
+    }
+
+    // the parenthesis the VM blames for a failed call, on the line of the instruction at ip
+    private void paren(int ip) {
+        token(TokenType.RIGHT_PAREN, ")", lines[ip]);
+    }
+
+    // the inline cache of the property site at ip
+    private void cache(int ip) {
+        constant("P" + ip, "Lguru/PropertyCache;", () -> {
+            asm.type(NEW, CACHE);
+            asm.op(DUP, 1);
+            asm.invoke(INVOKESPECIAL, CACHE, "<init>", "()V");
+        });
+    }
+
+    private void instruction(int ip, int depth) {
+        byte op = code[ip];
+        if (op >= EQUAL_LL && op <= DIVIDE_LL) {
+            load(u1(ip + 1));
+            load(u1(ip + 2));
+            binary(op - EQUAL_LL + EQUAL, ip);
+            push(depth);
+            return;
+        }
+        if (op >= EQUAL_LK && op <= DIVIDE_LK) {
+            load(u1(ip + 1));
+            constant(k[u2(ip + 2)]);
+            binary(op - EQUAL_LK + EQUAL, ip);
+            push(depth);
+            return;
+        }
+        switch (op) {
+            case CONSTANT:
+                constant(k[u2(ip + 1)]);
+                push(depth);
+                break;
+            case NIL:
+                asm.op(ACONST_NULL, 1);
+                push(depth);
+                break;
+            case TRUE:
+            case FALSE:
+                asm.field(GETSTATIC, "java/lang/Boolean", op == TRUE ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+                push(depth);
+                break;
+            case POP:
+                break;
+            case GET_LOCAL:
+                load(u1(ip + 1));
+                push(depth);
+                break;
+            case SET_LOCAL:
+            case SET_LOCAL_POP:
+                load(depth - 1);
+                store(u1(ip + 1));
+                break;
+            case GET_UPVALUE:
+                upvalue(u1(ip + 1));
+                asm.field(GETFIELD, UPVALUE, "value", OBJECT);
+                push(depth);
+                break;
+            case SET_UPVALUE:
+                upvalue(u1(ip + 1));
+                load(depth - 1);
+                asm.field(PUTFIELD, UPVALUE, "value", OBJECT);
+                break;
+            case GET_GLOBAL:
+                asm.push(u2(ip + 1));
+                token((Token) k[u2(ip + 3)]);
+                asm.invoke(INVOKESTATIC, ROUTINE, "global", "(ILguru/Token;)" + OBJECT);
+                push(depth);
+                break;
+            case SET_GLOBAL:
+                load(depth - 1);
+                asm.push(u2(ip + 1));
+                token((Token) k[u2(ip + 3)]);
+                asm.invoke(INVOKESTATIC, ROUTINE, "assign", "(" + OBJECT + "ILguru/Token;)V");
+                break;
+            case DEFINE_GLOBAL:
+            case DEFINE_CONST:
+                load(depth - 1);
+                asm.push(u2(ip + 1));
+                asm.invoke(INVOKESTATIC, ROUTINE, op == DEFINE_GLOBAL ? "define" : "constant", "(" + OBJECT + "I)V");
+                break;
+            case GET_PROPERTY:
+                cache(ip);
+                load(depth - 1);
+                token((Token) k[u2(ip + 1)]);
+                asm.invoke(INVOKEVIRTUAL, CACHE, "get", "(" + OBJECT + "Lguru/Token;)" + OBJECT);
+                push(depth - 1);
+                break;
+            case SET_PROPERTY:
+                cache(ip);
+                load(depth - 1);
+                token((Token) k[u2(ip + 1)]);
+                load(depth - 2);
+                asm.invoke(INVOKEVIRTUAL, CACHE, "set", "(" + OBJECT + "Lguru/Token;" + OBJECT + ")" + OBJECT);
+                push(depth - 2);
+                break;
+            case EQUAL: case NOT_EQUAL: case GREATER: case GREATER_EQUAL: case LESS: case LESS_EQUAL:
+            case ADD: case SUBTRACT: case MULTIPLY: case DIVIDE:
+                load(depth - 2);
+                load(depth - 1);
+                binary(op, ip);
+                push(depth - 2);
+                break;
+            case NOT:
+                load(depth - 1);
+                asm.invoke(INVOKESTATIC, ROUTINE, "not", "(" + OBJECT + ")" + OBJECT);
+                push(depth - 1);
+                break;
+            case NEGATE:
+                load(depth - 1);
+                token(TokenType.MINUS, "-", lines[ip]);
+                asm.invoke(INVOKESTATIC, ROUTINE, "negate", "(" + OBJECT + "Lguru/Token;)" + OBJECT);
+                push(depth - 1);
+                break;
+            case PRINT:
+                load(depth - 1);
+                asm.invoke(INVOKESTATIC, ROUTINE, "print", "(" + OBJECT + ")V");
+                break;
+            case JUMP:
+            case LOOP:
+                asm.jump(GOTO, targets.get(target(ip)));
+                break;
+            case JUMP_IF_FALSE:
+            case JUMP_IF_TRUE:
+            case POP_JUMP_IF_FALSE:
+                load(depth - 1);
+                asm.invoke(INVOKESTATIC, "guru/Interpreter", "isTruthy", "(" + OBJECT + ")Z");
+                asm.jump(op == JUMP_IF_TRUE ? IFNE : IFEQ, targets.get(target(ip)));
+                break;
+            case CALL:
+            case TAIL_CALL:
+                call(ip, depth, op == TAIL_CALL);
+                break;
+            case INVOKE:
+            case TAIL_INVOKE:
+                invoke(ip, depth, op == TAIL_INVOKE);
+                break;
+            case CLOSURE: {
+                // a local function captures the slot it is about to be pushed to, to call itself
+                boolean recursive = false;
+                for (int i = ip + 3; i < ip + length(ip); i += 2) recursive |= code[i] == 1 && u1(i + 1) == depth;
+                if (recursive) {
+                    asm.op(ACONST_NULL, 1);
+                    push(depth);
+                }
+                closure(ip);
+                if (recursive) store(depth); else push(depth);
+                break;
+            }
+            case CLOSE_SCOPE:
+                load(depth - 1);
+                push(depth - u1(ip + 1) - 1);
+                break;
+            case RETURN:
+                load(depth - 1);
+                asm.op(ARETURN, -1);
+                break;
+            case CLASS:
+                asm.type(NEW, "guru/GClass");
+                asm.op(DUP, 1);
+                asm.ldc((String) k[u2(ip + 1)]);
+                asm.invoke(INVOKESPECIAL, "guru/GClass", "<init>", "(Ljava/lang/String;)V");
+                push(depth);
+                break;
+            case METHOD:
+                load(depth - 2);
+                asm.ldc((String) k[u2(ip + 1)]);
+                load(depth - 1);
+                asm.invoke(INVOKESTATIC, ROUTINE, "method", "(" + OBJECT + "Ljava/lang/String;" + OBJECT + ")V");
+                break;
+            case INHERIT:
+                load(depth - 2);
+                load(depth - 1);
+                token((Token) k[u2(ip + 1)]);
+                asm.invoke(INVOKESTATIC, ROUTINE, "inherit", "(" + OBJECT + OBJECT + "Lguru/Token;)" + OBJECT);
+                push(depth - 2);
+                break;
+            default:
+                throw new IllegalStateException("bad opcode " + op);
+        }
+    }
+
+    // the two operands on the JVM stack become the result, failing as the VM's binary does
+    private void binary(int op, int ip) {
+        String name;
+        TokenType type;
+        String lexeme;
+        switch (op) {
+            case EQUAL:
+            case NOT_EQUAL:
+                asm.invoke(INVOKESTATIC, ROUTINE, op == EQUAL ? "equal" : "notEqual", "(" + OBJECT + OBJECT + ")" + OBJECT);
+                return;
+            case GREATER: name = "greater"; type = TokenType.GREATER; lexeme = ">"; break;
+            case GREATER_EQUAL: name = "greaterEqual"; type = TokenType.GREATER_EQUAL; lexeme = ">="; break;
+            case LESS: name = "less"; type = TokenType.LESS; lexeme = "<"; break;
+            case LESS_EQUAL: name = "lessEqual"; type = TokenType.LESS_EQUAL; lexeme = "<="; break;
+            case ADD: name = "add"; type = TokenType.PLUS; lexeme = "+"; break;
+            case SUBTRACT: name = "subtract"; type = TokenType.MINUS; lexeme = "-"; break;
+            case MULTIPLY: name = "multiply"; type = TokenType.STAR; lexeme = "*"; break;
+            default: name = "divide"; type = TokenType.SLASH; lexeme = "/"; break;
+        }
+        token(type, lexeme, lines[ip]);
+        asm.invoke(INVOKESTATIC, ROUTINE, name, "(" + OBJECT + OBJECT + "Lguru/Token;)" + OBJECT);
+    }
+
+    // a tail call of the routine itself with all its arguments starts it over with them in place
+    private void again(int from, int n) {
+        for (int i = 0; i < n; i++) {
+            load(from + i);
+            push(i);
+        }
+        asm.jump(GOTO, start);
+    }
+
+    private void call(int ip, int depth, boolean tail) {
+        int argc = u1(ip + 1), callee = depth - argc - 1;
+        if (tail) {
+            if (argc == proto.arity) {
+                Label other = new Label();
+                load(callee);
+                asm.aload(0);
+                asm.jump(IF_ACMPNE, other);
+                again(callee + 1, argc);
+                asm.place(other);
+            }
+            load(callee);
+            array(callee + 1, argc);
+            paren(ip);
+            asm.invoke(INVOKESTATIC, ROUTINE, "tail", "(" + OBJECT + "[" + OBJECT + "Lguru/Token;)" + OBJECT);
+        } else if (argc <= 3) {
+            for (int i = 0; i <= argc; i++) load(callee + i);
+            paren(ip);
+            asm.invoke(INVOKESTATIC, ROUTINE, "call" + argc, "(" + OBJECT.repeat(argc + 1) + "Lguru/Token;)" + OBJECT);
+        } else {
+            load(callee);
+            array(callee + 1, argc);
+            paren(ip);
+            asm.invoke(INVOKESTATIC, ROUTINE, "call", "(" + OBJECT + "[" + OBJECT + "Lguru/Token;)" + OBJECT);
+        }
+        push(callee);
+    }
+
+    private void invoke(int ip, int depth, boolean tail) {
+        Token name = (Token) k[u2(ip + 1)];
+        int argc = u1(ip + 3), obj = depth - argc - 1;
+        if (tail && !proto.isStatic && argc + 1 == proto.arity) {
+            Label other = new Label();
+            cache(ip);
+            load(obj);
+            token(name);
+            asm.push(argc + 1);
+            asm.invoke(INVOKESTATIC, ROUTINE, "method", "(Lguru/PropertyCache;" + OBJECT + "Lguru/Token;I)Lguru/Routine;");
+            asm.aload(0);
+            asm.jump(IF_ACMPNE, other);
+            again(obj, argc + 1);
+            asm.place(other);
+        }
+        cache(ip);
+        load(obj);
+        token(name);
+        String front = "(Lguru/PropertyCache;" + OBJECT + "Lguru/Token;";
+        if (!tail && argc <= 2) {
+            for (int i = 1; i <= argc; i++) load(obj + i);
+            paren(ip);
+            asm.invoke(INVOKESTATIC, ROUTINE, "invoke" + argc, front + OBJECT.repeat(argc) + "Lguru/Token;)" + OBJECT);
+        } else {
+            array(obj + 1, argc);
+            paren(ip);
+            asm.invoke(INVOKESTATIC, ROUTINE, tail ? "tailInvoke" : "invoke", front + "[" + OBJECT + "Lguru/Token;)" + OBJECT);
+        }
+        push(obj);
+    }
+
+    private void closure(int ip) {
+        Proto inner = (Proto) k[u2(ip + 1)];
+        String cls = names.get(inner);
+        asm.type(NEW, cls);
+        asm.op(DUP, 1);
+        asm.push(inner.upvalues);
+        asm.type(ANEWARRAY, UPVALUE);
+        for (int i = 0; i < inner.upvalues; i++) {
+            asm.op(DUP, 1);
+            asm.push(i);
+            int index = u1(ip + 4 + 2 * i);
+            if (code[ip + 3 + 2 * i] == 1) asm.aload(first + index); else upvalue(index);
+            asm.op(AASTORE, -3);
+        }
+        asm.invoke(INVOKESPECIAL, cls, "<init>", CREATE);
+    }
+}
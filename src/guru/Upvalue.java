@@ -0,0 +1,12 @@
+package guru;
+
+class Upvalue {
+    int slot;
+    Object value;
+    Upvalue next;
+
+    Upvalue(int slot, Upvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+}
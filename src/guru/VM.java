@@ -0,0 +1,664 @@
+package guru;
+
+import static guru.OpCode.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import guru.Interpreter.RE;
+
+/*
+ * Runs Compiler's chunks in one dispatch loop. Property sites look up through the
+ * inline cache their chunk keeps for them, and each operator goes straight to its
+ * own helper. Every value on the stack is boxed, so a numeric loop spends most of
+ * its time allocating Longs and Doubles: the VM runs such loops in roughly half the
+ * time of the tree-walker it replaced, not several times faster. Scripts that need
+ * more run as JVM classes, through the JIT or an image.
+ */
+class VM {
+    // stack slots kept free above every frame for its locals and temporaries
+    static final int FRAME_SLOTS = 256;
+
+    private static class Frame {
+        VMClosure closure;
+        int ip;
+        int base;
+        int ret;
+        GInstance receiver;
+    }
+
+    private static final Object UNDEFINED = new Object();
+
+    private final Map<String, Integer> names = new HashMap<>();
+    private Object[] globals = new Object[0];
+    private Object[] consts = new Object[0];
+    private Object[] stack = new Object[64 * FRAME_SLOTS];
+    private Frame[] frames = new Frame[64];
+    private int sp = 0;
+    private int fp = 0;
+    private Upvalue open;
+
+    VM() {
+        for (int i = 0; i < frames.length; i++) frames[i] = new Frame();
+        int runtime = global("runtime");
+        globals[runtime] = Interpreter.natives();
+    }
+
+    int global(String name) {
+        Integer slot = names.get(name);
+        if (slot != null) return slot;
+        slot = names.size();
+        names.put(name, slot);
+        if (slot == globals.length) {
+            globals = Arrays.copyOf(globals, slot * 2 + 8);
+            consts = Arrays.copyOf(consts, globals.length);
+            Arrays.fill(globals, slot, globals.length, UNDEFINED);
+        }
+        return slot;
+    }
+
+    String[] names() {
+        String[] slots = new String[names.size()];
+        names.forEach((name, slot) -> slots[slot] = name);
+        return slots;
+    }
+
+    Object interpret(Proto script) {
+        VMClosure closure = new VMClosure(this, script);
+        int depth = fp;
+        try {
+            stack[sp++] = closure;
+            push(closure, 0, sp - 1, null);
+            return run(depth);
+        } catch (RE err) {
+            sp = 0;
+            fp = 0;
+            open = null;
+            throw err;
+        }
+    }
+
+    Object call(VMClosure closure, Object[] args) {
+        int depth = fp;
+        if (sp + args.length + FRAME_SLOTS > stack.length) grow(args.length + FRAME_SLOTS);
+        stack[sp++] = closure;
+        for (Object arg : args) stack[sp++] = arg;
+        enter(closure, args.length, sp - args.length - 1, null);
+        return run(depth);
+    }
+
+    private void push(VMClosure closure, int argc, int ret, GInstance receiver) {
+        if (fp == frames.length || sp + FRAME_SLOTS > stack.length) grow(FRAME_SLOTS);
+        Frame frame = frames[fp++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argc;
+        frame.ret = ret;
+        frame.receiver = receiver;
+    }
+
+    // frames live on the heap, so guru recursion is bounded by memory rather than the thread stack
+    private void grow(int slots) {
+        try {
+            if (fp == frames.length) {
+                int n = frames.length;
+                frames = Arrays.copyOf(frames, n * 2);
+                for (int i = n; i < frames.length; i++) frames[i] = new Frame();
+            }
+            if (sp + slots > stack.length) stack = Arrays.copyOf(stack, Math.max(stack.length * 2, sp + slots));
+        } catch (OutOfMemoryError err) {
+            throw new RE("Stack overflow.", token(CALL));
+        }
+    }
+
+    private void enter(VMClosure closure, int argc, int ret, GInstance receiver) {
+        int arity = closure.proto.arity;
+        if (argc > arity) {
+            sp -= argc - arity;
+            argc = arity;
+        }
+        while (argc < arity) {
+            stack[sp++] = null;
+            argc++;
+        }
+        push(closure, argc, ret, receiver);
+    }
+
+    private Object[] args(int argc) {
+        Object[] args = Arrays.copyOfRange(stack, sp - argc, sp);
+        sp -= argc;
+        return args;
+    }
+
+    private void call(Object callee, int argc) {
+        int ret = sp - argc - 1;
+        if (callee instanceof VMClosure) {
+            VMClosure closure = (VMClosure) callee;
+            int arity = closure.proto.arity;
+            if (argc == arity) {
+                push(closure, argc, ret, null);
+                return;
+            }
+            if (argc > arity) throw new RE("Not Enough (or too many) arguments: expected "+ arity + ", got: "+ argc, token(CALL));
+            stack[ret] = Interpreter.curry(closure, args(argc));
+            return;
+        }
+        if (callee instanceof GClass) {
+            GClass cl = (GClass) callee;
+            Object constructor = cl.method("new");
+            int arity = cl.arity();
+            if (constructor instanceof VMClosure && argc == arity) {
+                GInstance inst = cl.instance();
+                stack[ret] = inst;
+                enter((VMClosure) constructor, argc + 1, ret, inst);
+                return;
+            }
+        }
+        if (callee instanceof Interpreter.Curried) {
+            Interpreter.Curried curried = (Interpreter.Curried) callee;
+            int n = curried.fargs.length;
+            if (sp + n + FRAME_SLOTS > stack.length) grow(n + FRAME_SLOTS);
+            System.arraycopy(stack, ret + 1, stack, ret + 1 + n, argc);
+            stack[ret] = curried.func;
+            for (int i = 0; i < n; i++) stack[ret + 1 + i] = curried.fargs[i];
+            sp += n;
+            call(curried.func, argc + n);
+            return;
+        }
+        if (!(callee instanceof GCallable)) throw new RE("not a funciton, you moron", token(CALL));
+        // the callee may reenter the VM and grow the stack
+        Object result = Interpreter.call(null, (GCallable) callee, args(argc), token(CALL));
+        stack[ret] = result;
+        sp = ret + 1;
+    }
+
+    private void invoke(PropertyCache cache, Token name, int argc) {
+        int ret = sp - argc - 1;
+        Object obj = stack[ret];
+        if (obj instanceof GInstance && !name.lexeme.equals("new")) {
+            Object method = cache.lookup((GInstance) obj, name);
+            if (method instanceof VMClosure && !((VMClosure) method).isStatic()) {
+                VMClosure closure = (VMClosure) method;
+                int arity = closure.proto.arity - 1;
+                if (argc == arity || arity == -1) {
+                    enter(closure, argc + 1, ret, null);
+                    return;
+                }
+            }
+        }
+        stack[ret] = cache.get(obj, name);
+        call(stack[ret], argc);
+    }
+
+    // the closure a TAIL_CALL or TAIL_INVOKE at ip can run in place of the current frame, or null
+    private VMClosure tail(byte op, byte[] code, Object[] k, PropertyCache[] caches, int ip, int sp) {
+        if (op == TAIL_CALL) {
+            int argc = code[ip] & 0xff;
+            Object callee = stack[sp - argc - 1];
+            if (callee instanceof VMClosure && ((VMClosure) callee).proto.arity == argc) return (VMClosure) callee;
+            return null;
+        }
+        int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+        Token name = (Token) k[index];
+        int argc = code[ip + 2] & 0xff;
+        Object obj = stack[sp - argc - 1];
+        if (!(obj instanceof GInstance) || name.lexeme.equals("new")) return null;
+        Object method = caches[index].lookup((GInstance) obj, name);
+        if (!(method instanceof VMClosure) || ((VMClosure) method).isStatic()) return null;
+        VMClosure closure = (VMClosure) method;
+        return closure.proto.arity == argc + 1 ? closure : null;
+    }
+
+    private Upvalue capture(int slot) {
+        Upvalue prev = null;
+        Upvalue up = open;
+        while (up != null && up.slot > slot) {
+            prev = up;
+            up = up.next;
+        }
+        if (up != null && up.slot == slot) return up;
+        Upvalue created = new Upvalue(slot, up);
+        if (prev == null) open = created; else prev.next = created;
+        return created;
+    }
+
+    private void close(int last) {
+        while (open != null && open.slot >= last) {
+            Upvalue up = open;
+            up.value = stack[up.slot];
+            up.slot = -1;
+            open = up.next;
+        }
+    }
+
+    private Object global(int slot, Token name) {
+        Object val = consts[slot];
+        if (val != null) return val;
+        val = globals[slot];
+        if (val == UNDEFINED) throw new RE("Undefined variable '" + name.lexeme + "'.", name);
+        return val;
+    }
+
+    private static Object num(Object operand, byte op) {
+        if (Numbers.isNumber(operand)) return operand;
+        throw new RE("Operand must be a number.", token(op));
+    }
+
+    private static Object equal(Object a, Object b) {
+        return Interpreter.isEqual(a, b);
+    }
+
+    private static Object notEqual(Object a, Object b) {
+        return !Interpreter.isEqual(a, b);
+    }
+
+    private static Object greater(Object a, Object b) {
+        if (a instanceof Long && b instanceof Long) return (long) (Long) a > (Long) b;
+        return Numbers.less(num(b, GREATER), num(a, GREATER));
+    }
+
+    private static Object greaterEqual(Object a, Object b) {
+        if (a instanceof Long && b instanceof Long) return (long) (Long) a >= (Long) b;
+        return Numbers.lessEqual(num(b, GREATER_EQUAL), num(a, GREATER_EQUAL));
+    }
+
+    private static Object less(Object a, Object b) {
+        if (a instanceof Long && b instanceof Long) return (long) (Long) a < (Long) b;
+        return Numbers.less(num(a, LESS), num(b, LESS));
+    }
+
+    private static Object lessEqual(Object a, Object b) {
+        if (a instanceof Long && b instanceof Long) return (long) (Long) a <= (Long) b;
+        return Numbers.lessEqual(num(a, LESS_EQUAL), num(b, LESS_EQUAL));
+    }
+
+    private static Object add(Object a, Object b) {
+        if (a instanceof Long && b instanceof Long) return Numbers.add((long) (Long) a, (long) (Long) b);
+        if (Numbers.isNumber(a) && Numbers.isNumber(b)) return Numbers.add(a, b);
+        if (a instanceof String && b instanceof String) return (String) a + (String) b;
+        throw new RE("invalid types for sum operation;", token(ADD));
+    }
+
+    private static Object subtract(Object a, Object b) {
+        if (a instanceof Long && b instanceof Long) return Numbers.subtract((long) (Long) a, (long) (Long) b);
+        return Numbers.subtract(num(a, SUBTRACT), num(b, SUBTRACT));
+    }
+
+    private static Object multiply(Object a, Object b) {
+        if (a instanceof Long && b instanceof Long) return Numbers.multiply((long) (Long) a, (long) (Long) b);
+        return Numbers.multiply(num(a, MULTIPLY), num(b, MULTIPLY));
+    }
+
+    private static Object divide(Object a, Object b) {
+        return Numbers.divide(num(a, DIVIDE), num(b, DIVIDE));
+    }
+
+    private static Token token(byte op) {
+        switch (op) {
+            case GREATER: return new Token(TokenType.GREATER, ">", null, 0);
+            case GREATER_EQUAL: return new Token(TokenType.GREATER_EQUAL, ">=", null, 0);
+            case LESS: return new Token(TokenType.LESS, "<", null, 0);
+            case LESS_EQUAL: return new Token(TokenType.LESS_EQUAL, "<=", null, 0);
+            case ADD: return new Token(TokenType.PLUS, "+", null, 0);
+            case SUBTRACT: case NEGATE: return new Token(TokenType.MINUS, "-", null, 0);
+            case MULTIPLY: return new Token(TokenType.STAR, "*", null, 0);
+            case DIVIDE: return new Token(TokenType.SLASH, "/", null, 0);
+            default: return new Token(TokenType.RIGHT_PAREN, ")", null, 0);
+        }
+    }
+
+    private RE located(RE err) {
+        if (err.token.line != 0 || fp == 0) return err;
+        Frame frame = frames[fp - 1];
+        int line = frame.closure.proto.chunk.lines[Math.max(frame.ip - 1, 0)];
+        RE located = new RE(err.getMessage(), new Token(err.token.type, err.token.lexeme, null, line));
+        located.setStackTrace(err.getStackTrace());
+        return located;
+    }
+
+    private Object run(int exit) {
+        Frame frame = frames[fp - 1];
+        byte[] code = frame.closure.proto.chunk.code;
+        Object[] k = frame.closure.proto.chunk.constants;
+        PropertyCache[] caches = frame.closure.proto.chunk.caches;
+        Upvalue[] ups = frame.closure.upvalues;
+        Object[] stack = this.stack;
+        int ip = frame.ip;
+        int base = frame.base;
+        int sp = this.sp;
+        Object a, b;
+
+        try {
+            for (;;) {
+                switch (code[ip++]) {
+                    case CONSTANT:
+                        stack[sp++] = k[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        break;
+                    case NIL: stack[sp++] = null; break;
+                    case TRUE: stack[sp++] = true; break;
+                    case FALSE: stack[sp++] = false; break;
+                    case POP: sp--; break;
+                    case GET_LOCAL:
+                        stack[sp++] = stack[base + (code[ip++] & 0xff)];
+                        break;
+                    case SET_LOCAL:
+                        stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+                        break;
+                    case SET_LOCAL_POP:
+                        stack[base + (code[ip++] & 0xff)] = stack[--sp];
+                        break;
+                    case GET_UPVALUE: {
+                        Upvalue up = ups[code[ip++] & 0xff];
+                        stack[sp++] = up.slot >= 0 ? stack[up.slot] : up.value;
+                        break;
+                    }
+                    case SET_UPVALUE: {
+                        Upvalue up = ups[code[ip++] & 0xff];
+                        if (up.slot >= 0) stack[up.slot] = stack[sp - 1]; else up.value = stack[sp - 1];
+                        break;
+                    }
+                    case GET_GLOBAL:
+                        stack[sp++] = global(((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff), (Token) k[((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff)]);
+                        ip += 4;
+                        break;
+                    case SET_GLOBAL: {
+                        int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        if (globals[slot] == UNDEFINED) {
+                            Token name = (Token) k[((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff)];
+                            throw new RE("Undefined variable '" + name.lexeme + "'.", name);
+                        }
+                        globals[slot] = stack[sp - 1];
+                        ip += 4;
+                        break;
+                    }
+                    case DEFINE_GLOBAL:
+                        globals[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)] = stack[--sp];
+                        ip += 2;
+                        break;
+                    case DEFINE_CONST:
+                        consts[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)] = stack[--sp];
+                        ip += 2;
+                        break;
+                    case GET_PROPERTY: {
+                        int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        stack[sp - 1] = caches[index].get(stack[sp - 1], (Token) k[index]);
+                        ip += 2;
+                        break;
+                    }
+                    case SET_PROPERTY: {
+                        int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        sp--;
+                        stack[sp - 1] = caches[index].set(stack[sp], (Token) k[index], stack[sp - 1]);
+                        ip += 2;
+                        break;
+                    }
+                    case EQUAL:
+                        b = stack[--sp];
+                        stack[sp - 1] = equal(stack[sp - 1], b);
+                        break;
+                    case NOT_EQUAL:
+                        b = stack[--sp];
+                        stack[sp - 1] = notEqual(stack[sp - 1], b);
+                        break;
+                    case GREATER:
+                        b = stack[--sp];
+                        stack[sp - 1] = greater(stack[sp - 1], b);
+                        break;
+                    case GREATER_EQUAL:
+                        b = stack[--sp];
+                        stack[sp - 1] = greaterEqual(stack[sp - 1], b);
+                        break;
+                    case LESS:
+                        b = stack[--sp];
+                        stack[sp - 1] = less(stack[sp - 1], b);
+                        break;
+                    case LESS_EQUAL:
+                        b = stack[--sp];
+                        stack[sp - 1] = lessEqual(stack[sp - 1], b);
+                        break;
+                    case ADD:
+                        b = stack[--sp];
+                        stack[sp - 1] = add(stack[sp - 1], b);
+                        break;
+                    case SUBTRACT:
+                        b = stack[--sp];
+                        stack[sp - 1] = subtract(stack[sp - 1], b);
+                        break;
+                    case MULTIPLY:
+                        b = stack[--sp];
+                        stack[sp - 1] = multiply(stack[sp - 1], b);
+                        break;
+                    case DIVIDE:
+                        b = stack[--sp];
+                        stack[sp - 1] = divide(stack[sp - 1], b);
+                        break;
+                    case EQUAL_LL:
+                        stack[sp++] = equal(stack[base + (code[ip] & 0xff)], stack[base + (code[ip + 1] & 0xff)]);
+                        ip += 2;
+                        break;
+                    case NOT_EQUAL_LL:
+                        stack[sp++] = notEqual(stack[base + (code[ip] & 0xff)], stack[base + (code[ip + 1] & 0xff)]);
+                        ip += 2;
+                        break;
+                    case GREATER_LL:
+                        stack[sp++] = greater(stack[base + (code[ip] & 0xff)], stack[base + (code[ip + 1] & 0xff)]);
+                        ip += 2;
+                        break;
+                    case GREATER_EQUAL_LL:
+                        stack[sp++] = greaterEqual(stack[base + (code[ip] & 0xff)], stack[base + (code[ip + 1] & 0xff)]);
+                        ip += 2;
+                        break;
+                    case LESS_LL:
+                        stack[sp++] = less(stack[base + (code[ip] & 0xff)], stack[base + (code[ip + 1] & 0xff)]);
+                        ip += 2;
+                        break;
+                    case LESS_EQUAL_LL:
+                        stack[sp++] = lessEqual(stack[base + (code[ip] & 0xff)], stack[base + (code[ip + 1] & 0xff)]);
+                        ip += 2;
+                        break;
+                    case ADD_LL:
+                        stack[sp++] = add(stack[base + (code[ip] & 0xff)], stack[base + (code[ip + 1] & 0xff)]);
+                        ip += 2;
+                        break;
+                    case SUBTRACT_LL:
+                        stack[sp++] = subtract(stack[base + (code[ip] & 0xff)], stack[base + (code[ip + 1] & 0xff)]);
+                        ip += 2;
+                        break;
+                    case MULTIPLY_LL:
+                        stack[sp++] = multiply(stack[base + (code[ip] & 0xff)], stack[base + (code[ip + 1] & 0xff)]);
+                        ip += 2;
+                        break;
+                    case DIVIDE_LL:
+                        stack[sp++] = divide(stack[base + (code[ip] & 0xff)], stack[base + (code[ip + 1] & 0xff)]);
+                        ip += 2;
+                        break;
+                    case EQUAL_LK:
+                        stack[sp++] = equal(stack[base + (code[ip] & 0xff)], k[((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff)]);
+                        ip += 3;
+                        break;
+                    case NOT_EQUAL_LK:
+                        stack[sp++] = notEqual(stack[base + (code[ip] & 0xff)], k[((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff)]);
+                        ip += 3;
+                        break;
+                    case GREATER_LK:
+                        stack[sp++] = greater(stack[base + (code[ip] & 0xff)], k[((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff)]);
+                        ip += 3;
+                        break;
+                    case GREATER_EQUAL_LK:
+                        stack[sp++] = greaterEqual(stack[base + (code[ip] & 0xff)], k[((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff)]);
+                        ip += 3;
+                        break;
+                    case LESS_LK:
+                        stack[sp++] = less(stack[base + (code[ip] & 0xff)], k[((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff)]);
+                        ip += 3;
+                        break;
+                    case LESS_EQUAL_LK:
+                        stack[sp++] = lessEqual(stack[base + (code[ip] & 0xff)], k[((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff)]);
+                        ip += 3;
+                        break;
+                    case ADD_LK:
+                        stack[sp++] = add(stack[base + (code[ip] & 0xff)], k[((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff)]);
+                        ip += 3;
+                        break;
+                    case SUBTRACT_LK:
+                        stack[sp++] = subtract(stack[base + (code[ip] & 0xff)], k[((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff)]);
+                        ip += 3;
+                        break;
+                    case MULTIPLY_LK:
+                        stack[sp++] = multiply(stack[base + (code[ip] & 0xff)], k[((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff)]);
+                        ip += 3;
+                        break;
+                    case DIVIDE_LK:
+                        stack[sp++] = divide(stack[base + (code[ip] & 0xff)], k[((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff)]);
+                        ip += 3;
+                        break;
+                    case NOT:
+                        stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+                        break;
+                    case NEGATE:
+                        stack[sp - 1] = Numbers.negate(num(stack[sp - 1], NEGATE));
+                        break;
+                    case PRINT:
+                        a = stack[--sp];
+                        System.out.println(a == null ? "nothing" : Numbers.stringify(a));
+                        break;
+                    case JUMP:
+                        ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+                        break;
+                    case JUMP_IF_FALSE:
+                        if (Interpreter.isTruthy(stack[sp - 1])) ip += 2;
+                        else ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+                        break;
+                    case JUMP_IF_TRUE:
+                        if (!Interpreter.isTruthy(stack[sp - 1])) ip += 2;
+                        else ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+                        break;
+                    case POP_JUMP_IF_FALSE:
+                        if (Interpreter.isTruthy(stack[--sp])) ip += 2;
+                        else ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+                        break;
+                    case LOOP:
+                        ip += 2 - (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                        break;
+                    case TAIL_CALL:
+                    case TAIL_INVOKE:
+                    case CALL:
+                    case INVOKE: {
+                        boolean tail = code[ip - 1] == TAIL_CALL || code[ip - 1] == TAIL_INVOKE;
+                        VMClosure callee = tail && frame.receiver == null ? tail(code[ip - 1], code, k, caches, ip, sp) : null;
+                        if (callee != null) {
+                            close(base);
+                            int argc = code[ip - 1] == TAIL_CALL ? code[ip] & 0xff : code[ip + 2] & 0xff;
+                            System.arraycopy(stack, sp - argc - 1, stack, frame.ret, argc + 1);
+                            sp = frame.ret + argc + 1;
+                            frame.closure = callee;
+                            code = callee.proto.chunk.code;
+                            k = callee.proto.chunk.constants;
+                            caches = callee.proto.chunk.caches;
+                            ups = callee.upvalues;
+                            ip = 0;
+                            base = frame.base = sp - callee.proto.arity;
+                            break;
+                        }
+                        int argc;
+                        frame.ip = ip;
+                        if (code[ip - 1] == CALL || code[ip - 1] == TAIL_CALL) {
+                            argc = code[ip++] & 0xff;
+                            frame.ip = ip;
+                            this.sp = sp;
+                            call(stack[sp - argc - 1], argc);
+                        } else {
+                            int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                            argc = code[ip + 2] & 0xff;
+                            ip += 3;
+                            frame.ip = ip;
+                            this.sp = sp;
+                            invoke(caches[index], (Token) k[index], argc);
+                        }
+                        sp = this.sp;
+                        stack = this.stack;
+                        frame = frames[fp - 1];
+                        code = frame.closure.proto.chunk.code;
+                        k = frame.closure.proto.chunk.constants;
+                        caches = frame.closure.proto.chunk.caches;
+                        ups = frame.closure.upvalues;
+                        ip = frame.ip;
+                        base = frame.base;
+                        break;
+                    }
+                    case CLOSURE: {
+                        Proto proto = (Proto) k[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        VMClosure closure = new VMClosure(this, proto);
+                        for (int i = 0; i < proto.upvalues; i++) {
+                            boolean local = code[ip++] == 1;
+                            int index = code[ip++] & 0xff;
+                            closure.upvalues[i] = local ? capture(base + index) : ups[index];
+                        }
+                        stack[sp++] = closure;
+                        break;
+                    }
+                    case CLOSE_SCOPE: {
+                        int n = code[ip++] & 0xff;
+                        a = stack[sp - 1];
+                        close(sp - n - 1);
+                        sp -= n;
+                        stack[sp - 1] = a;
+                        break;
+                    }
+                    case RETURN: {
+                        a = stack[--sp];
+                        close(frame.base);
+                        if (frame.receiver != null) a = frame.receiver;
+                        sp = frame.ret;
+                        frame.closure = null;
+                        frame.receiver = null;
+                        if (--fp == exit) {
+                            this.sp = sp;
+                            return a;
+                        }
+                        stack[sp++] = a;
+                        frame = frames[fp - 1];
+                        code = frame.closure.proto.chunk.code;
+                        k = frame.closure.proto.chunk.constants;
+                        caches = frame.closure.proto.chunk.caches;
+                        ups = frame.closure.upvalues;
+                        ip = frame.ip;
+                        base = frame.base;
+                        break;
+                    }
+                    case CLASS:
+                        stack[sp++] = new GClass((String) k[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]);
+                        ip += 2;
+                        break;
+                    case METHOD: {
+                        String name = (String) k[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        VMClosure method = (VMClosure) stack[--sp];
+                        GClass cl = (GClass) stack[sp - 1];
+                        cl.define(name, method);
+                        if (method.isStatic()) cl.put(name, method);
+                        break;
+                    }
+                    case INHERIT: {
+                        Token father = (Token) k[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        GClass sub = (GClass) stack[--sp];
+                        if (!(stack[sp - 1] instanceof GClass)) throw new RE("no father class with such a name found", father);
+                        GClass sup = (GClass) stack[sp - 1];
+                        sub.inherit(sup);
+                        stack[sp - 1] = sub;
+                        break;
+                    }
+                    default:
+                        throw new IllegalStateException("bad opcode " + code[ip - 1]);
+                }
+            }
+        } catch (RE err) {
+            frame.ip = ip;
+            throw located(err);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package guru;
+
+class VMClosure implements GCallable {
+    final VM vm;
+    final Proto proto;
+    final Upvalue[] upvalues;
+
+    VMClosure(VM vm, Proto proto) {
+        this.vm = vm;
+        this.proto = proto;
+        this.upvalues = new Upvalue[proto.upvalues];
+    }
+
+    @Override
+    public Object callN(Interpreter i, Object[] args) {
+        return vm.call(this, args);
+    }
+
+    @Override
+    public int arity() {
+        return proto.arity;
+    }
+
+    @Override
+    public boolean isStatic() {
+        return proto.isStatic;
+    }
+
+    @Override
+    public String toString() {
+        return proto.toString();
+    }
+}
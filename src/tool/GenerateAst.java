@@ -14,32 +14,33 @@ public class GenerateAst {
         String outputDir =  args[0];
         defineAst(outputDir, "Stmt", Arrays.asList(
             "Statement : Expr expression",
-            "Var : Token name, Expr expression",
-            "Const : Token name, Expr expression",
-            "Fun : Token name, List<Token> args, Expr expression, Boolean isStatic",
-            "Class : Token name, List<Stmt.Fun> methods",
-            "ExtendClass : Stmt.Class def, Token father",
+            "Var : Token name, Expr expression ; int slot = -1, int global, boolean scalar, boolean cell",
+            "Const : Token name, Expr expression ; int slot = -1, int global",
+            "Fun : Token name, List<Token> args, Expr expression, Boolean isStatic ; int slot = -1, int global, int size, boolean cell, Captures captures",
+            "Class : Token name, List<Stmt.Fun> methods ; int slot = -1, int global, boolean cell",
+            "ExtendClass : Stmt.Class def, Token father ; int depth = -1, int slot",
             "Print : Expr expression"
         ));
         defineAst(outputDir, "Expr", Arrays.asList(
-            "Lambda : List<Token> args, Expr expression, Boolean isStatic",
+            "Lambda : List<Token> args, Expr expression, Boolean isStatic ; int size, Captures captures",
             "Anon : List<Stmt.Fun> methods",
-            "ExtendAnon : Expr.Anon def, Token father",
-            "Get : Expr obj, Token name",
-            "Set : Expr obj, Token name, Expr value",
-            "Binary : Expr left, Token operator, Expr right",
+            "ExtendAnon : Expr.Anon def, Token father ; int depth = -1, int slot",
+            "Get : Expr obj, Token name ; PropertyCache cache = new PropertyCache()",
+            "Set : Expr obj, Token name, Expr value ; PropertyCache cache = new PropertyCache()",
+            "Binary : Expr left, Token operator, Expr right ; BinaryNode node = BinaryNode.UNINITIALIZED",
             "Logika : Expr left, Token operator, Expr right",
-            "Call : Expr callee, Token paren, List<Expr> args",
+            "Call : Expr callee, Token paren, List<Expr> args ; boolean tail, CallCache cache = new CallCache()",
+            "Inline : Expr.Call call, Expr body, Captures target, boolean self, int base",
             "While : Expr cond, Expr body",
-            "With : List<Stmt.Var> stmts, Expr body",
+            "With : List<Stmt.Var> stmts, Expr body ; int size, boolean flat",
             "Grouping : Expr expression",
             "If : Expr cond, Expr iftrue, Expr iffalse",
-            "Block : List<Stmt> stmts",
-            "Assignment : Token name, Expr value",
+            "Block : List<Stmt> stmts ; int size, int result = -1, boolean flat",
+            "Assignment : Token name, Expr value ; int depth = -1, int slot",
             "Literal : Object value",
             "CommaExpressions : List<Expr> expressionList",
             "Unary : Token operator, Expr right",
-            "Variable : Token name"
+            "Variable : Token name ; int depth = -1, int slot, Object constant"
         ));
     }
     public static void defineAst(String dir, String baseName, List<String> types) throws IOException {
@@ -58,11 +59,11 @@ public class GenerateAst {
 
             public void process(String thing) {
                 String className = thing.split(":")[0].trim();
-                String fields = thing.split(":")[1].trim();
-                defineType(className, fields);
+                String[] fields = thing.split(":")[1].split(";");
+                defineType(className, fields[0].trim(), fields.length > 1 ? fields[1].trim() : null);
             }
 
-            private void defineType(String className, String fieldList) {
+            private void defineType(String className, String fieldList, String resolvedList) {
                 writer.println("    static class " + className + " extends " + baseName + " {");
                 writer.println("        " + className + "(" + fieldList + ") {");
                 String[] fields = fieldList.split(", ");
@@ -75,6 +76,11 @@ public class GenerateAst {
                 for (String field : fields) {
                     writer.println("        final " + field + ";");
                 }
+                if (resolvedList != null) {
+                    for (String field : resolvedList.split(", ")) {
+                        writer.println("        " + field + ";");
+                    }
+                }
                 writer.println();
                 writer.println("    @Override");
                 writer.println("    <R> R accept(Visitor<R> visitor) {");